@@ -0,0 +1,2 @@
+cd /d "%~dp0"
+call mvn -B -q package && java -jar target\benchmarks.jar %*
@@ -0,0 +1,2 @@
+#!/bin/sh
+cd "$(dirname "$0")" && mvn -B -q package && java -jar target/benchmarks.jar "$@"
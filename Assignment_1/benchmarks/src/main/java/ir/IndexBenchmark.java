@@ -0,0 +1,54 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  Measures how long it takes to insert the (already tokenized) synthetic
+ *  corpus into an empty HashedIndex.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class IndexBenchmark {
+
+    @Param( { "1000" } )
+    int numDocs;
+
+    @Param( { "500" } )
+    int docLength;
+
+    @Param( { "50000" } )
+    int vocabularySize;
+
+    /** The tokens of every document. */
+    String[][] tokens;
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        tokens = new SyntheticCorpus( numDocs, docLength, vocabularySize ).tokenize();
+    }
+
+
+    /**
+     *  Builds a HashedIndex of the whole corpus.
+     */
+    @Benchmark
+    public Index insert() {
+        HashedIndex index = new HashedIndex();
+        SyntheticCorpus.insertAll( index, tokens );
+        return index;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  Measures term lookups in a PersistentHashedIndex written from the
+ *  synthetic corpus. Every operation looks up one term, drawn from the
+ *  same Zipf distribution as the words of the documents.
+ *
+ *  The index is written to PersistentHashedIndex.INDEXDIR, relative to
+ *  the working directory, so the benchmarks must be run from the
+ *  benchmarks directory, not from the one with the real index.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class PersistentIndexBenchmark {
+
+    /** Number of terms looked up, in a fixed order. */
+    static final int NUM_TERMS = 1 << 14;
+
+    @Param( { "1000" } )
+    int numDocs;
+
+    @Param( { "500" } )
+    int docLength;
+
+    @Param( { "50000" } )
+    int vocabularySize;
+
+    /** The index, opened from disk. */
+    PersistentHashedIndex index;
+
+    /** The terms to look up. */
+    String[] terms;
+
+    /** The next term to look up. */
+    int next = 0;
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        if ( new File( "ir/Engine.java" ).exists() ) {
+            throw new IllegalStateException( "Run the benchmarks from the benchmarks directory, so as not to overwrite " + PersistentHashedIndex.INDEXDIR );
+        }
+        new File( PersistentHashedIndex.INDEXDIR ).mkdirs();
+        SyntheticCorpus corpus = new SyntheticCorpus( numDocs, docLength, vocabularySize );
+        PersistentHashedIndex writer = new PersistentHashedIndex();
+        SyntheticCorpus.insertAll( writer, corpus.tokenize() );
+        writer.cleanup();
+        index = new PersistentHashedIndex();
+
+        SplittableRandom random = new SplittableRandom( SyntheticCorpus.SEED );
+        terms = new String[NUM_TERMS];
+        for ( int i = 0; i < NUM_TERMS; i++ ) {
+            terms[i] = corpus.nextWord( random );
+        }
+    }
+
+
+    String nextTerm() {
+        next = ( next + 1 ) & ( NUM_TERMS - 1 );
+        return terms[next];
+    }
+
+
+    /**
+     *  Looks up a postings list, served from the postings cache after the
+     *  first lookup of a term.
+     */
+    @Benchmark
+    public PostingsList getPostingsCached() {
+        return index.getPostings( nextTerm() );
+    }
+
+
+    /**
+     *  Looks up a postings list on disk and decodes it.
+     */
+    @Benchmark
+    public PostingsList getPostingsUncached() {
+        index.postingsCache.clear();
+        return index.getPostings( nextTerm() );
+    }
+
+
+    /**
+     *  Looks up the document frequency of a term in the dictionary.
+     */
+    @Benchmark
+    public int getDocumentFrequency() {
+        return index.getDocumentFrequency( nextTerm() );
+    }
+}
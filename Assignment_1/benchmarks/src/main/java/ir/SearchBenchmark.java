@@ -0,0 +1,93 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  Measures query evaluation on a HashedIndex of the synthetic corpus.
+ *  The query terms are picked by their rank in the vocabulary, so that
+ *  the same lists are compared when the corpus grows: e.g. "0,1" are the
+ *  two most frequent words and "0,1000" a frequent and a rare one.
+ *
+ *  The Searcher methods are called directly, bypassing the result cache.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class SearchBenchmark {
+
+    @Param( { "1000" } )
+    int numDocs;
+
+    @Param( { "500" } )
+    int docLength;
+
+    @Param( { "50000" } )
+    int vocabularySize;
+
+    /** The vocabulary ranks of the query terms. */
+    @Param( { "0,1", "10,100", "0,1000" } )
+    String termRanks;
+
+    Searcher searcher;
+
+    /** The postings lists of the first two query terms. */
+    PostingsList pl1, pl2;
+
+    /** All query terms. */
+    Query query;
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        SyntheticCorpus corpus = new SyntheticCorpus( numDocs, docLength, vocabularySize );
+        HashedIndex index = new HashedIndex();
+        SyntheticCorpus.insertAll( index, corpus.tokenize() );
+        searcher = new Searcher( index, null );
+
+        StringBuilder sb = new StringBuilder();
+        for ( String rank : termRanks.split( "," )) {
+            sb.append( corpus.vocabulary[Integer.parseInt( rank.trim() )] ).append( ' ' );
+        }
+        query = new Query( sb.toString() );
+        if ( query.size() < 2 ) {
+            throw new IllegalArgumentException( "termRanks must name at least two terms" );
+        }
+        pl1 = index.getPostings( query.queryterm.get( 0 ).term );
+        pl2 = index.getPostings( query.queryterm.get( 1 ).term );
+        if ( pl1 == null || pl2 == null ) {
+            throw new IllegalStateException( "A query term does not occur in the corpus, use a lower rank" );
+        }
+        System.err.println( "Query \"" + query.queryterm.get( 0 ).term + " " + query.queryterm.get( 1 ).term +
+                            "\": " + pl1.size() + " and " + pl2.size() + " documents" );
+    }
+
+
+    @Benchmark
+    public PostingsList intersect() {
+        return searcher.intersect( pl1, pl2 );
+    }
+
+
+    @Benchmark
+    public PostingsList phrase() {
+        return searcher.phrase( pl1, pl2 );
+    }
+
+
+    @Benchmark
+    public PostingsList rankedTfIdf() {
+        return searcher.rankedSearch( query, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS );
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+
+/**
+ *  A reproducible synthetic corpus for the benchmarks: documents of random
+ *  words whose frequencies follow Zipf's law, like the words of natural
+ *  text. The same parameters and seed always give the same corpus.
+ */
+public class SyntheticCorpus {
+
+    /** Seed of the random generator, so that runs can be compared. */
+    static final long SEED = 42;
+
+    /** The vocabulary, most frequent word first. */
+    final String[] vocabulary;
+
+    /** The text of every document. */
+    final String[] documents;
+
+    /** Cumulative Zipf probabilities of the vocabulary. */
+    private final double[] cumulative;
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Makes <code>numDocs</code> documents of <code>docLength</code> words
+     *  each from a vocabulary of <code>vocabularySize</code> words.
+     */
+    public SyntheticCorpus( int numDocs, int docLength, int vocabularySize ) {
+        SplittableRandom random = new SplittableRandom( SEED );
+        vocabulary = new String[vocabularySize];
+        HashSet<String> seen = new HashSet<String>();
+        for ( int i = 0; i < vocabularySize; i++ ) {
+            String word;
+            do {
+                // word lengths of 2..11 letters, shorter words being more frequent
+                int length = 2 + Math.min( 9, (int) Math.round( Math.log( i + 2 ) + random.nextInt( 4 )));
+                StringBuilder sb = new StringBuilder( length );
+                for ( int j = 0; j < length; j++ ) {
+                    sb.append( (char)( 'a' + random.nextInt( 26 )));
+                }
+                word = sb.toString();
+            } while ( !seen.add( word ));
+            vocabulary[i] = word;
+        }
+
+        cumulative = new double[vocabularySize];
+        double sum = 0;
+        for ( int i = 0; i < vocabularySize; i++ ) {
+            sum += 1.0 / ( i + 1 );
+            cumulative[i] = sum;
+        }
+        for ( int i = 0; i < vocabularySize; i++ ) {
+            cumulative[i] /= sum;
+        }
+
+        documents = new String[numDocs];
+        for ( int d = 0; d < numDocs; d++ ) {
+            StringBuilder sb = new StringBuilder( docLength * 8 );
+            for ( int w = 0; w < docLength; w++ ) {
+                sb.append( nextWord( random ));
+                // some punctuation and line breaks, as in real text
+                int r = random.nextInt( 20 );
+                sb.append( r == 0 ? ". " : r == 1 ? ",\n" : " " );
+            }
+            documents[d] = sb.toString();
+        }
+    }
+
+
+    /**
+     *  Wraps the text of a file (e.g. token_test.txt) as a one-document corpus.
+     */
+    public SyntheticCorpus( String fname ) throws IOException {
+        vocabulary = new String[0];
+        cumulative = new double[0];
+        documents = new String[] { new String( Files.readAllBytes( Paths.get( fname )), StandardCharsets.UTF_8 ) };
+    }
+
+
+    /** Draws a word from the Zipf distribution. */
+    String nextWord( SplittableRandom random ) {
+        int i = Arrays.binarySearch( cumulative, random.nextDouble() );
+        return vocabulary[Math.min( vocabulary.length - 1, i < 0 ? -i - 1 : i )];
+    }
+
+
+    /** The total number of characters in the corpus. */
+    long numChars() {
+        long n = 0;
+        for ( String doc : documents ) {
+            n += doc.length();
+        }
+        return n;
+    }
+
+
+    /**
+     *  Tokenizes every document the way the Indexer does.
+     *
+     *  @return The tokens of every document.
+     */
+    String[][] tokenize() throws IOException {
+        String[][] tokens = new String[documents.length][];
+        for ( int d = 0; d < documents.length; d++ ) {
+            Tokenizer tok = new Tokenizer( new StringReader( documents[d] ), true, false, true, null );
+            ArrayList<String> list = new ArrayList<String>();
+            while ( tok.hasMoreTokens() ) {
+                list.add( tok.nextToken() );
+            }
+            tokens[d] = list.toArray( new String[0] );
+        }
+        return tokens;
+    }
+
+
+    /**
+     *  Inserts the tokens of every document into an index, with the
+     *  document names and lengths the Indexer would register.
+     */
+    static void insertAll( Index index, String[][] tokens ) {
+        for ( int d = 0; d < tokens.length; d++ ) {
+            for ( int offset = 0; offset < tokens[d].length; offset++ ) {
+                index.insert( tokens[d][offset], d, offset );
+            }
+            index.docNames.put( d, "doc" + d + ".txt" );
+            index.docLengths.put( d, tokens[d].length );
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  Measures the throughput of the Tokenizer, on a synthetic corpus or on
+ *  the text of a file (e.g. <code>-p file=../token_test.txt</code>).
+ *  The score is the time to tokenize the whole corpus.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class TokenizerBenchmark {
+
+    @Param( { "1000" } )
+    int numDocs;
+
+    @Param( { "500" } )
+    int docLength;
+
+    @Param( { "50000" } )
+    int vocabularySize;
+
+    /** A file to tokenize instead of the synthetic corpus. */
+    @Param( { "" } )
+    String file;
+
+    /** The file with the patterns for non-standard words, or "" for none. */
+    @Param( { "" } )
+    String patterns;
+
+    SyntheticCorpus corpus;
+
+
+    @Setup( Level.Trial )
+    public void setup() throws IOException {
+        corpus = file.isEmpty() ? new SyntheticCorpus( numDocs, docLength, vocabularySize ) : new SyntheticCorpus( file );
+        System.err.println( "Tokenizing " + corpus.documents.length + " documents, " + corpus.numChars() + " characters" );
+    }
+
+
+    /**
+     *  Tokenizes every document the way the Indexer does.
+     *
+     *  @return The number of tokens.
+     */
+    @Benchmark
+    public long tokenize() throws IOException {
+        String patternFile = patterns.isEmpty() ? null : patterns;
+        long numTokens = 0;
+        for ( String doc : corpus.documents ) {
+            Tokenizer tok = new Tokenizer( new StringReader( doc ), true, false, true, patternFile );
+            while ( tok.hasMoreTokens() ) {
+                tok.nextToken();
+                numTokens++;
+            }
+        }
+        return numTokens;
+    }
+}
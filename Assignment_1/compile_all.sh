@@ -3,4 +3,4 @@ if ! [ -d classes ];
 then
    mkdir classes
 fi
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/BatchSearch.java ir/BKTree.java ir/CandidateGenerator.java ir/DocStore.java ir/EditDistance.java ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/LinkGraph.java ir/NormalizationType.java ir/PageRank.java ir/PersistentHashedIndex.java ir/PostingsCache.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/ResultCache.java ir/Searcher.java ir/SearchGUI.java ir/SearchServer.java ir/SnippetStore.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/SymmetricDeleteIndex.java ir/Tokenizer.java ir/TokenTest.java 
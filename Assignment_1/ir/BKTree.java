@@ -0,0 +1,159 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *  A BK-tree over the terms of the vocabulary, for finding all terms
+ *  within a given edit distance of a query term.
+ *
+ *  Every node holds a term, and its children are labelled with their
+ *  edit distance to it. By the triangle inequality, the terms within
+ *  distance r of a query at distance d from a node can only be below
+ *  children labelled d-r .. d+r, so most of the tree is never visited.
+ *
+ *  The nodes are kept in primitive arrays: node i holds term id
+ *  <code>nodeTerm[i]</code>, and its children form a linked list through
+ *  <code>firstChild</code> and <code>nextSibling</code>, with the edge
+ *  label of every node in <code>edge</code>.
+ */
+public class BKTree {
+
+    /** The vocabulary. */
+    private final KGramIndex kgIndex;
+
+    /** Term id, edge label, first child and next sibling of every node. */
+    private int[] nodeTerm, edge, firstChild, nextSibling;
+
+    /** The largest edge label among the children of every node. */
+    private int[] maxChildEdge;
+
+    /** Number of nodes. */
+    private int size = 0;
+
+    /** Reusable edit distance buffers. */
+    private final EditDistance distance = new EditDistance();
+
+    /** Reusable stack of nodes to visit. */
+    private int[] stack = new int[64];
+
+
+    /* --------------------------------------------- */
+
+
+    private BKTree( KGramIndex kgIndex, int capacity ) {
+        this.kgIndex = kgIndex;
+        capacity = Math.max( capacity, 1 );
+        nodeTerm = new int[capacity];
+        edge = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        maxChildEdge = new int[capacity];
+    }
+
+
+    /**
+     *  Builds a tree over all terms of a k-gram index.
+     */
+    public static BKTree build( KGramIndex kgIndex ) {
+        BKTree tree = new BKTree( kgIndex, kgIndex.size() );
+        for ( int id = 0; id < kgIndex.size(); id++ ) {
+            tree.insert( id );
+        }
+        return tree;
+    }
+
+
+    /** Number of terms in the tree. */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     *  Adds a term to the tree.
+     */
+    private void insert( int termID ) {
+        if ( size == nodeTerm.length ) {
+            int capacity = size * 2;
+            nodeTerm = Arrays.copyOf( nodeTerm, capacity );
+            edge = Arrays.copyOf( edge, capacity );
+            firstChild = Arrays.copyOf( firstChild, capacity );
+            nextSibling = Arrays.copyOf( nextSibling, capacity );
+            maxChildEdge = Arrays.copyOf( maxChildEdge, capacity );
+        }
+        int node = size++;
+        nodeTerm[node] = termID;
+        firstChild[node] = -1;
+        nextSibling[node] = -1;
+        maxChildEdge[node] = 0;
+        if ( node == 0 ) {
+            return;
+        }
+
+        String term = kgIndex.getTermByID( termID );
+        int cur = 0;
+        while ( true ) {
+            int d = distance.distance( term, kgIndex.getTermByID( nodeTerm[cur] ));
+            if ( d == 0 ) {
+                // the same term twice, nothing to add
+                size--;
+                return;
+            }
+            int child = firstChild[cur];
+            while ( child >= 0 && edge[child] != d ) {
+                child = nextSibling[child];
+            }
+            if ( child < 0 ) {
+                edge[node] = d;
+                nextSibling[node] = firstChild[cur];
+                firstChild[cur] = node;
+                maxChildEdge[cur] = Math.max( maxChildEdge[cur], d );
+                return;
+            }
+            cur = child;
+        }
+    }
+
+
+    /**
+     *  Returns the ids of all terms within edit distance <code>maxDistance</code>
+     *  of <code>term</code>.
+     */
+    public synchronized int[] search( String term, int maxDistance ) {
+        int[] result = new int[16];
+        int n = 0;
+        if ( size == 0 ) {
+            return new int[0];
+        }
+        int top = 0;
+        stack[top++] = 0;
+        while ( top > 0 ) {
+            int node = stack[--top];
+            // the exact distance is only needed as long as some child can be
+            // within reach; beyond that bound, neither the node nor any child is
+            int bound = maxChildEdge[node] + maxDistance;
+            int d = distance.distance( term, kgIndex.getTermByID( nodeTerm[node] ), bound );
+            if ( d <= maxDistance ) {
+                if ( n == result.length ) {
+                    result = Arrays.copyOf( result, n * 2 );
+                }
+                result[n++] = nodeTerm[node];
+            }
+            for ( int child = firstChild[node]; child >= 0; child = nextSibling[child] ) {
+                if ( edge[child] >= d - maxDistance && edge[child] <= d + maxDistance ) {
+                    if ( top == stack.length ) {
+                        stack = Arrays.copyOf( stack, top * 2 );
+                    }
+                    stack[top++] = child;
+                }
+            }
+        }
+        return Arrays.copyOf( result, n );
+    }
+}
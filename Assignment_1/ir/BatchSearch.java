@@ -0,0 +1,337 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *  Runs a file of queries against an index without the GUI, and reports
+ *  the throughput and latency of the searches.
+ *
+ *  Every line of the queries file is a query, optionally preceded by a
+ *  query id and a tab; queries without an id are numbered by line. The
+ *  results are written in the TREC run format
+ *    queryID Q0 document rank score runTag
+ *  one line per retrieved document. Optionally, snippets of the top
+ *  results are written to a separate file, one line per document:
+ *    queryID rank document snippet
+ *  (tab-separated), with the query terms in [brackets].
+ */
+public class BatchSearch {
+
+    /** Name of the run in the TREC output. */
+    static final String RUN_TAG = "ir";
+
+    /** Largest number of snippets written per query. */
+    static final int SNIPPETS_PER_QUERY = 10;
+
+    /** The index, the k-gram index and the searcher used for all queries. */
+    final Index index;
+    final KGramIndex kgIndex;
+    final Searcher searcher;
+
+    /** The ids and query strings, in file order. */
+    final ArrayList<String> queryIDs = new ArrayList<String>();
+    final ArrayList<String> queries = new ArrayList<String>();
+
+
+    /* --------------------------------------------- */
+
+
+    public BatchSearch( Index index, KGramIndex kgIndex ) {
+        this.index = index;
+        this.kgIndex = kgIndex;
+        this.searcher = new Searcher( index, kgIndex );
+    }
+
+
+    /**
+     *  Reads a queries file.
+     */
+    void readQueries( String fname ) throws IOException {
+        try ( BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( fname ), StandardCharsets.UTF_8 ))) {
+            String line;
+            int lineNumber = 0;
+            while (( line = in.readLine() ) != null ) {
+                lineNumber++;
+                int tab = line.indexOf( '\t' );
+                String id = tab < 0 ? Integer.toString( lineNumber ) : line.substring( 0, tab ).trim();
+                String query = ( tab < 0 ? line : line.substring( tab + 1 )).toLowerCase().trim();
+                if ( !query.isEmpty() ) {
+                    queryIDs.add( id );
+                    queries.add( query );
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  Runs every query <code>repeat</code> times on <code>numThreads</code>
+     *  threads, and returns the latency of every search in nanoseconds.
+     *  The results of the last run are stored in <code>results</code>.
+     */
+    long[] run( int numThreads, int repeat, QueryType queryType, RankingType rankingType,
+                NormalizationType normType, PostingsList[] results ) throws InterruptedException {
+        int n = queries.size();
+        long[] latencies = new long[n * repeat];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool( numThreads );
+        for ( int t = 0; t < numThreads; t++ ) {
+            pool.execute( () -> {
+                int i;
+                while (( i = next.getAndIncrement() ) < latencies.length ) {
+                    Query query = new Query( queries.get( i % n ));
+                    long start = System.nanoTime();
+                    PostingsList result = searcher.search( query, queryType, rankingType, normType );
+                    latencies[i] = System.nanoTime() - start;
+                    if ( i >= latencies.length - n ) {
+                        results[i % n] = result;
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+        return latencies;
+    }
+
+
+    /**
+     *  Writes the top <code>k</code> documents of every result in the TREC run format.
+     */
+    void writeResults( PostingsList[] results, int k, PrintStream out ) {
+        for ( int q = 0; q < results.length; q++ ) {
+            PostingsList result = results[q];
+            if ( result == null ) {
+                continue;
+            }
+            for ( int i = 0; i < result.size() && i < k; i++ ) {
+                PostingsEntry entry = result.get( i );
+                String name = index.getDocName( entry.docID );
+                out.println( queryIDs.get( q ) + " Q0 " + ( name == null ? entry.docID : Searcher.fileName( name )) + " "
+                             + ( i + 1 ) + " " + String.format( "%.6f", entry.score ) + " " + RUN_TAG );
+            }
+        }
+    }
+
+
+    /**
+     *  Writes snippets of the top results of every query.
+     */
+    void writeSnippets( PostingsList[] results, SnippetStore snippets, int k, PrintStream out ) throws IOException {
+        for ( int q = 0; q < results.length; q++ ) {
+            PostingsList result = results[q];
+            if ( result == null ) {
+                continue;
+            }
+            Query query = new Query( queries.get( q ));
+            for ( int i = 0; i < result.size() && i < k; i++ ) {
+                int docID = result.get( i ).docID;
+                String name = index.getDocName( docID );
+                String snippet = snippets.snippet( index, query, docID, false );
+                out.println( queryIDs.get( q ) + "\t" + ( i + 1 ) + "\t" + ( name == null ? docID : Searcher.fileName( name ))
+                             + "\t" + ( snippet == null ? "" : snippet ));
+            }
+        }
+    }
+
+
+    /**
+     *  Prints the number of queries per second and the latency percentiles.
+     */
+    static void report( long[] latencies, long wallTime, int numThreads, PrintStream out ) {
+        long[] sorted = latencies.clone();
+        Arrays.sort( sorted );
+        long total = 0;
+        for ( long t : sorted ) {
+            total += t;
+        }
+        out.println( String.format( "%d searches on %d threads in %.3f s: %.1f queries/s",
+                                    sorted.length, numThreads, wallTime / 1e9, sorted.length / ( wallTime / 1e9 )));
+        out.println( String.format( "latency: mean %.3f ms, p50 %.3f ms, p95 %.3f ms, p99 %.3f ms, max %.3f ms",
+                                    total / 1e6 / Math.max( 1, sorted.length ),
+                                    percentile( sorted, 0.50 ) / 1e6, percentile( sorted, 0.95 ) / 1e6,
+                                    percentile( sorted, 0.99 ) / 1e6,
+                                    sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6 ));
+    }
+
+
+    /** Returns a percentile of sorted values (nearest rank). */
+    static long percentile( long[] sorted, double p ) {
+        if ( sorted.length == 0 ) {
+            return 0;
+        }
+        int rank = (int) Math.ceil( p * sorted.length );
+        return sorted[Math.max( 0, rank - 1 )];
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /** Prints usage information. */
+    static void printHelpMessage() {
+        System.err.println( "Usage: BatchSearch -q <queries_file> (-d <directory> ... | -ni) [options]" );
+        System.err.println( "  -d <dir>   : index a directory in memory (may be repeated)" );
+        System.err.println( "  -ni        : use the persistent index in " + PersistentHashedIndex.INDEXDIR + " without indexing" );
+        System.err.println( "  -p <file>  : patterns file for the tokenizer" );
+        System.err.println( "  -r <file>  : PageRank file" );
+        System.err.println( "  -o <file>  : write the results to a file (default: standard output)" );
+        System.err.println( "  -t <n>     : number of threads (default: 1)" );
+        System.err.println( "  -n <n>     : run the queries n times, reporting on all runs (default: 1)" );
+        System.err.println( "  -k <n>     : number of results written per query (default: 1000)" );
+        System.err.println( "  -sn <file> : write snippets of the top " + SNIPPETS_PER_QUERY + " results of every query to a file" );
+        System.err.println( "               (with -ni, needs the snippet store made by indexing with Engine -sn)" );
+        System.err.println( "  -qt intersection|phrase|ranked     (default: ranked)" );
+        System.err.println( "  -rt tf_idf|pagerank|combination    (default: tf_idf)" );
+        System.err.println( "  -nt number_of_words|euclidean      (default: number_of_words)" );
+    }
+
+
+    public static void main( String[] args ) {
+        ArrayList<String> dirNames = new ArrayList<String>();
+        String queriesFile = null, patternsFile = null, rankFile = null, outFile = null, snippetsFile = null;
+        boolean persistent = false;
+        int numThreads = 1, repeat = 1, k = 1000;
+        QueryType queryType = QueryType.RANKED_QUERY;
+        RankingType rankingType = RankingType.TF_IDF;
+        NormalizationType normType = NormalizationType.NUMBER_OF_WORDS;
+        try {
+            int i = 0;
+            while ( i < args.length ) {
+                String opt = args[i++];
+                if ( "-ni".equals( opt )) {
+                    persistent = true;
+                    continue;
+                }
+                if ( i == args.length ) {
+                    throw new IllegalArgumentException( "Missing value for " + opt );
+                }
+                String value = args[i++];
+                if ( "-q".equals( opt )) {
+                    queriesFile = value;
+                } else if ( "-d".equals( opt )) {
+                    dirNames.add( value );
+                } else if ( "-p".equals( opt )) {
+                    patternsFile = value;
+                } else if ( "-r".equals( opt )) {
+                    rankFile = value;
+                } else if ( "-sn".equals( opt )) {
+                    snippetsFile = value;
+                } else if ( "-o".equals( opt )) {
+                    outFile = value;
+                } else if ( "-t".equals( opt )) {
+                    numThreads = Integer.parseInt( value );
+                } else if ( "-n".equals( opt )) {
+                    repeat = Integer.parseInt( value );
+                } else if ( "-k".equals( opt )) {
+                    k = Integer.parseInt( value );
+                } else if ( "-qt".equals( opt )) {
+                    queryType = QueryType.valueOf( value.toUpperCase() + "_QUERY" );
+                } else if ( "-rt".equals( opt )) {
+                    rankingType = RankingType.valueOf( value.toUpperCase() );
+                } else if ( "-nt".equals( opt )) {
+                    normType = NormalizationType.valueOf( value.toUpperCase() );
+                } else {
+                    throw new IllegalArgumentException( "Unknown option: " + opt );
+                }
+            }
+        } catch ( IllegalArgumentException e ) {
+            System.err.println( e.getMessage() );
+            printHelpMessage();
+            return;
+        }
+        if ( queriesFile == null || ( dirNames.isEmpty() && !persistent ) || numThreads < 1 || repeat < 1 ) {
+            printHelpMessage();
+            return;
+        }
+
+        try {
+            Index index;
+            KGramIndex kgIndex = new KGramIndex( 2 );
+            String snippetStore = Engine.SNIPPETS_FNAME;
+            long startTime = System.currentTimeMillis();
+            if ( persistent ) {
+                index = new PersistentHashedIndex();
+                try {
+                    kgIndex.readIndex( PersistentHashedIndex.INDEXDIR + "/" + KGramIndex.KGRAMS_FNAME );
+                } catch ( IOException e ) {
+                    System.err.println( "Warning: no k-gram index on disk, wildcards are disabled" );
+                    kgIndex = null;
+                }
+            } else {
+                index = new HashedIndex();
+                Indexer indexer = new Indexer( index, kgIndex, patternsFile );
+                SnippetStore.Writer snippetWriter = null;
+                if ( snippetsFile != null ) {
+                    // a store of our own, leaving the one of the persistent index alone
+                    File store = File.createTempFile( "snippets", null );
+                    store.deleteOnExit();
+                    snippetStore = store.getPath();
+                    snippetWriter = new SnippetStore.Writer( snippetStore );
+                    indexer.setSnippetWriter( snippetWriter );
+                }
+                for ( String dir : dirNames ) {
+                    indexer.processFiles( new File( dir ), true );
+                }
+                kgIndex.trimToSize();
+                if ( snippetWriter != null ) {
+                    snippetWriter.close();
+                }
+            }
+            System.err.println( String.format( "%d documents loaded in %.1f seconds.", index.getNumberOfDocs(),
+                                               ( System.currentTimeMillis() - startTime ) / 1000.0 ));
+
+            BatchSearch batch = new BatchSearch( index, kgIndex );
+            if ( rankFile != null ) {
+                batch.searcher.readPageRanks( rankFile );
+            }
+            batch.readQueries( queriesFile );
+
+            PostingsList[] results = new PostingsList[batch.queries.size()];
+            long wallStart = System.nanoTime();
+            long[] latencies = batch.run( numThreads, repeat, queryType, rankingType, normType, results );
+            long wallTime = System.nanoTime() - wallStart;
+
+            if ( outFile != null ) {
+                try ( PrintStream out = new PrintStream( new BufferedOutputStream( new FileOutputStream( outFile )), false, "UTF-8" )) {
+                    batch.writeResults( results, k, out );
+                }
+            } else {
+                batch.writeResults( results, k, System.out );
+                System.out.flush();
+            }
+            if ( snippetsFile != null ) {
+                long snippetStart = System.nanoTime();
+                SnippetStore snippets = SnippetStore.read( snippetStore );
+                try ( PrintStream out = new PrintStream( new BufferedOutputStream( new FileOutputStream( snippetsFile )), false, "UTF-8" )) {
+                    batch.writeSnippets( results, snippets, Math.min( k, SNIPPETS_PER_QUERY ), out );
+                } finally {
+                    snippets.close();
+                }
+                System.err.println( String.format( "Snippets written in %.3f s.", ( System.nanoTime() - snippetStart ) / 1e9 ));
+            }
+            report( latencies, wallTime, numThreads, System.err );
+            System.err.println( batch.searcher.resultCache );
+            if ( index instanceof PersistentHashedIndex ) {
+                System.err.println( ((PersistentHashedIndex) index).postingsCache );
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+/**
+ *  The different ways of generating candidate spelling corrections.
+ */
+public enum CandidateGenerator {
+    KGRAM, SYMMETRIC_DELETE, BK_TREE
+}
@@ -0,0 +1,182 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+
+/*
+ *   A dense, docID-indexed store of document names and document lengths.
+ *
+ *   The store is kept in a single binary file with the layout
+ *
+ *     MAGIC (int) | numDocs (int)
+ *     lengths     (numDocs ints, -1 for docIDs without a document)
+ *     nameOffsets (numDocs+1 ints, offsets into the name arena)
+ *     name arena  (the UTF-8 encoded document names, back to back)
+ *
+ *   When read, the file is memory-mapped. The lengths are copied into
+ *   an int array, while the names are decoded from the mapped arena
+ *   only when they are asked for.
+ */
+public class DocStore {
+
+    /** Identifies a doc store file. */
+    public static final int MAGIC = 0x44535431;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    /** The length of every document, indexed by docID. */
+    private final int[] lengths;
+
+    /** Offsets into <code>names</code>, indexed by docID. */
+    private final IntBuffer nameOffsets;
+
+    /** The UTF-8 encoded document names. */
+    private final ByteBuffer names;
+
+    /** The number of documents (docIDs with a document). */
+    private final int numDocs;
+
+
+    /* ----------------------------------------------- */
+
+
+    private DocStore( int[] lengths, IntBuffer nameOffsets, ByteBuffer names ) {
+        this.lengths = lengths;
+        this.nameOffsets = nameOffsets;
+        this.names = names;
+        int n = 0;
+        for ( int len : lengths ) {
+            if ( len >= 0 ) {
+                n++;
+            }
+        }
+        numDocs = n;
+    }
+
+
+    /** Number of docIDs covered by the store, i.e. the largest docID + 1. */
+    public int size() {
+        return lengths.length;
+    }
+
+
+    /** Number of documents in the store. */
+    public int getNumberOfDocs() {
+        return numDocs;
+    }
+
+
+    /**
+     *  Returns the name of the document, or null if there is no
+     *  document with the given docID.
+     */
+    public String getName( int docID ) {
+        if ( docID < 0 || docID >= lengths.length || lengths[docID] < 0 ) {
+            return null;
+        }
+        int start = nameOffsets.get( docID );
+        int end = nameOffsets.get( docID + 1 );
+        byte[] data = new byte[end - start];
+        // read through a duplicate, so concurrent readers do not disturb each other
+        ByteBuffer view = names.duplicate();
+        view.position( start );
+        view.get( data );
+        return new String( data, StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     *  Returns the length of the document, or -1 if there is no
+     *  document with the given docID.
+     */
+    public int getLength( int docID ) {
+        if ( docID < 0 || docID >= lengths.length ) {
+            return -1;
+        }
+        return lengths[docID];
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Writes the document names and lengths to a doc store file.
+     */
+    public static void write( String fname, Map<Integer,String> docNames, Map<Integer,Integer> docLengths ) throws IOException {
+        int numDocs = 0;
+        for ( Integer docID : docNames.keySet() ) {
+            numDocs = Math.max( numDocs, docID + 1 );
+        }
+        byte[][] encoded = new byte[numDocs][];
+        int arenaSize = 0;
+        for ( Map.Entry<Integer,String> entry : docNames.entrySet() ) {
+            encoded[entry.getKey()] = entry.getValue().getBytes( StandardCharsets.UTF_8 );
+            arenaSize += encoded[entry.getKey()].length;
+        }
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname ), 1 << 16 ))) {
+            out.writeInt( MAGIC );
+            out.writeInt( numDocs );
+            for ( int docID = 0; docID < numDocs; docID++ ) {
+                Integer len = docLengths.get( docID );
+                out.writeInt( encoded[docID] == null ? -1 : ( len == null ? 0 : len ));
+            }
+            int offset = 0;
+            for ( int docID = 0; docID < numDocs; docID++ ) {
+                out.writeInt( offset );
+                if ( encoded[docID] != null ) {
+                    offset += encoded[docID].length;
+                }
+            }
+            out.writeInt( offset );
+            for ( int docID = 0; docID < numDocs; docID++ ) {
+                if ( encoded[docID] != null ) {
+                    out.write( encoded[docID] );
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  Memory-maps a doc store file.
+     *
+     *  @throws FileNotFoundException if there is no doc store file.
+     */
+    public static DocStore read( String fname ) throws IOException {
+        try ( RandomAccessFile file = new RandomAccessFile( fname, "r" );
+              FileChannel channel = file.getChannel() ) {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            if ( buffer.getInt( 0 ) != MAGIC ) {
+                throw new IOException( fname + " is not a doc store file" );
+            }
+            int numDocs = buffer.getInt( Integer.BYTES );
+
+            int[] lengths = new int[numDocs];
+            buffer.position( HEADER_SIZE );
+            buffer.asIntBuffer().get( lengths );
+
+            int offsetsStart = HEADER_SIZE + numDocs * Integer.BYTES;
+            buffer.position( offsetsStart );
+            IntBuffer nameOffsets = buffer.slice().asIntBuffer();
+            nameOffsets.limit( numDocs + 1 );
+
+            buffer.position( offsetsStart + ( numDocs + 1 ) * Integer.BYTES );
+            ByteBuffer names = buffer.slice();
+            return new DocStore( lengths, nameOffsets, names );
+        }
+    }
+}
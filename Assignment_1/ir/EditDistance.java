@@ -0,0 +1,81 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *  Levenshtein edit distance with the costs used for spelling correction:
+ *  insert (cost 1), delete (cost 1) and substitute (cost 2).
+ *
+ *  The distance is computed row by row in two buffers that are reused
+ *  between calls, so an instance must not be shared between threads.
+ */
+public class EditDistance {
+
+    /** Cost of substituting one character for another. */
+    static final int SUBSTITUTION_COST = 2;
+
+    private int[] prev = new int[32];
+    private int[] cur = new int[32];
+
+
+    /**
+     *  Returns the edit distance between <code>s1</code> and <code>s2</code>,
+     *  or <code>bound+1</code> if it is larger than <code>bound</code>.
+     *
+     *  Since a path through the dynamic programming table costs at least
+     *  |i-j| at cell (i,j), only the band of cells with |i-j| <= bound is
+     *  computed, and the computation stops as soon as a whole row exceeds
+     *  the bound.
+     */
+    public int distance( String s1, String s2, int bound ) {
+        int n = s1.length(), m = s2.length();
+        if ( Math.abs( n - m ) > bound ) {
+            return bound + 1;
+        }
+        if ( cur.length <= m ) {
+            prev = new int[m + 1];
+            cur = new int[m + 1];
+        }
+        int inf = bound + 1;
+        for ( int j = 0; j <= m; j++ ) {
+            prev[j] = j <= bound ? j : inf;
+        }
+        for ( int i = 1; i <= n; i++ ) {
+            int from = Math.max( 1, i - bound );
+            int to = Math.min( m, i + bound );
+            cur[0] = i <= bound ? i : inf;
+            if ( from > 1 ) {
+                cur[from - 1] = inf;
+            }
+            int rowMin = cur[0];
+            char c = s1.charAt( i - 1 );
+            for ( int j = from; j <= to; j++ ) {
+                int d = prev[j - 1] + ( c == s2.charAt( j - 1 ) ? 0 : SUBSTITUTION_COST );
+                d = Math.min( d, prev[j] + 1 );
+                d = Math.min( d, cur[j - 1] + 1 );
+                cur[j] = Math.min( d, inf );
+                rowMin = Math.min( rowMin, cur[j] );
+            }
+            if ( to < m ) {
+                cur[to + 1] = inf;
+            }
+            if ( rowMin > bound ) {
+                return inf;
+            }
+            int[] tmp = prev; prev = cur; cur = tmp;
+        }
+        return prev[m];
+    }
+
+
+    /**
+     *  Returns the exact edit distance between <code>s1</code> and <code>s2</code>.
+     */
+    public int distance( String s1, String s2 ) {
+        return distance( s1, s2, s1.length() + s2.length() );
+    }
+}
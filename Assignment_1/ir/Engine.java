@@ -9,6 +9,8 @@ package ir;
 
 import java.util.ArrayList;
 import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  *  This is the main class for the search engine.
@@ -27,23 +29,25 @@ public class Engine {
     Searcher searcher;
 
     /** K-gram index */
-    KGramIndex kgIndex = null;
-    // Assignment 3: Comment the line above and uncomment the next line
-    // KgramIndex kgIndex = new KGramIndex(2);
+    KGramIndex kgIndex = new KGramIndex(2);
 
     /** Spell checker */
-    SpellChecker speller;
-    // Assignment 3: Comment the line above and uncomment the next line
-    // SpellChecker = new SpellChecker( index, kgIndex );
+    SpellChecker speller = new SpellChecker( index, kgIndex );
     
     /** The engine GUI. */
     SearchGUI gui;
 
+    /** The file where the token offsets of the documents are stored for snippets. */
+    static final String SNIPPETS_FNAME = PersistentHashedIndex.INDEXDIR + "/" + SnippetStore.SNIPPETS_FNAME;
+
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
-    Object indexLock = new Object();
+    /**
+     *  Lock to prevent searching while the index is changed. Searches
+     *  share the read lock, indexing takes the write lock.
+     */
+    final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
@@ -54,9 +58,18 @@ public class Engine {
     /** The file containing the pageranks. */
     String rank_file = "";
 
+    /** The links and titles files of the link graph, for HITS ranking. */
+    String links_file = null, titles_file = null;
+
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** Should the token offsets of the documents be stored for showing snippets? */
+    boolean use_snippets = false;
+
+    /** The stored token offsets of the documents, or null. */
+    SnippetStore snippets = null;
+
 
     /* ----------------------------------------------- */
 
@@ -69,27 +82,79 @@ public class Engine {
         decodeArgs( args );
         indexer = new Indexer( index, kgIndex, patterns_file );
         searcher = new Searcher( index, kgIndex );
+        if ( !rank_file.isEmpty() ) {
+            searcher.readPageRanks( rank_file );
+        }
+        if ( links_file != null ) {
+            searcher.readLinkGraph( links_file, titles_file );
+        }
         gui = new SearchGUI( this );
         gui.init();
         /* 
          *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to 
+         *   Indexing holds the write lock since we don't want to 
          *   search at the same time we're indexing new files (this might 
          *   corrupt the index).
          */
         if (is_indexing) {
-            synchronized ( indexLock ) {
+            indexLock.writeLock().lock();
+            try {
                 gui.displayInfoText( "Indexing, please wait..." );
+                SnippetStore.Writer snippetWriter = null;
+                if ( use_snippets ) {
+                    try {
+                        snippetWriter = new SnippetStore.Writer( SNIPPETS_FNAME );
+                        indexer.setSnippetWriter( snippetWriter );
+                    } catch ( IOException e ) {
+                        System.err.println( "Warning: could not create " + SNIPPETS_FNAME + ", snippets are disabled" );
+                    }
+                }
                 long startTime = System.currentTimeMillis();
                 for ( int i=0; i<dirNames.size(); i++ ) {
                     File dokDir = new File( dirNames.get( i ));
                     indexer.processFiles( dokDir, is_indexing );
                 }
+                if ( snippetWriter != null ) {
+                    indexer.setSnippetWriter( null );
+                    try {
+                        snippetWriter.close();
+                        snippets = SnippetStore.read( SNIPPETS_FNAME );
+                    } catch ( IOException e ) {
+                        e.printStackTrace();
+                    }
+                }
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
                 index.cleanup();
+                if ( kgIndex != null ) {
+                    kgIndex.trimToSize();
+                }
+                if ( kgIndex != null && index instanceof PersistentHashedIndex ) {
+                    try {
+                        kgIndex.writeIndex( PersistentHashedIndex.INDEXDIR + "/" + KGramIndex.KGRAMS_FNAME );
+                    } catch ( IOException e ) {
+                        e.printStackTrace();
+                    }
+                }
+                searcher.clearCache();
+            } finally {
+                indexLock.writeLock().unlock();
             }
         } else {
+            if ( kgIndex != null && index instanceof PersistentHashedIndex ) {
+                try {
+                    kgIndex.readIndex( PersistentHashedIndex.INDEXDIR + "/" + KGramIndex.KGRAMS_FNAME );
+                } catch ( IOException e ) {
+                    System.err.println( "Warning: no k-gram index on disk, spelling correction and wildcards are disabled" );
+                }
+            }
+            if ( use_snippets ) {
+                try {
+                    snippets = SnippetStore.read( SNIPPETS_FNAME );
+                } catch ( IOException e ) {
+                    System.err.println( "Warning: no snippet store on disk, snippets are disabled" );
+                }
+            }
             gui.displayInfoText( "Index is loaded from disk" );
         }
     }
@@ -123,9 +188,24 @@ public class Engine {
                 if ( i < args.length ) {
                     rank_file = args[i++];
                 }
+            } else if ( "-hits".equals( args[i] )) {
+                i++;
+                if ( i + 1 < args.length ) {
+                    links_file = args[i++];
+                    titles_file = args[i++];
+                }
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-sn".equals( args[i] )) {
+                i++;
+                use_snippets = true;
+            } else if ( "-sd".equals( args[i] )) {
+                i++;
+                speller.setCandidateGenerator( CandidateGenerator.SYMMETRIC_DELETE );
+            } else if ( "-bk".equals( args[i] )) {
+                i++;
+                speller.setCandidateGenerator( CandidateGenerator.BK_TREE );
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
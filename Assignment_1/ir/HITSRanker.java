@@ -8,6 +8,8 @@
 package ir;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.io.*;
 
 
@@ -30,19 +32,64 @@ public class HITSRanker {
     Index index;
 
     /**
-     *   Mapping from the titles to internal document ids used in the links file
+     *   Number of rows every fork-join task multiplies without splitting further
+     */
+    final static int ROWS_PER_TASK = 2048;
+
+    /**
+     *   Number of query-time rankings kept in the cache
+     */
+    final static int CACHE_SIZE = 128;
+
+    /**
+     *   Weight of the authority score when ranking query results (the hub score gets the rest)
+     */
+    final static double AUTHORITY_WEIGHT = 0.5;
+
+    /**
+     *   The link graph, with its adjacency matrix in CSR form
+     */
+    LinkGraph graph;
+
+    /**
+     *   Mapping from the titles to the graph's internal node indexes
      */
     HashMap<String,Integer> titleToId = new HashMap<String,Integer>();
 
     /**
-     *   Sparse vector containing hub scores
+     *   The nodes of the base set of the last call to iterate
+     */
+    int[] baseNodes;
+
+    /**
+     *   Hub scores, aligned with baseNodes
+     */
+    double[] hubs;
+
+    /**
+     *   Authority scores, aligned with baseNodes
+     */
+    double[] authorities;
+
+    /**
+     *   Reusable membership set and local numbering for building base sets
+     */
+    private BitSet inBaseSet;
+    private int[] localIndex;
+
+    /**
+     *   Mapping between internal node indexes and the docIDs of the index (-1 if none)
      */
-    HashMap<Integer,Double> hubs;
+    private int[] nodeToDoc, docToNode;
 
     /**
-     *   Sparse vector containing authority scores
+     *   LRU cache of query-time rankings, keyed by the sorted root set
      */
-    HashMap<Integer,Double> authorities;
+    private final LinkedHashMap<RootSet,Ranking> cache = new LinkedHashMap<RootSet,Ranking>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<RootSet,Ranking> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
 
     
     /* --------------------------------------------- */
@@ -102,9 +149,20 @@ public class HITSRanker {
      * @param      titlesFilename  File containing the mapping between nodeIDs and pages titles
      */
     void readDocs( String linksFilename, String titlesFilename ) {
-        //
-        // YOUR CODE HERE
-        //
+        try {
+            graph = LinkGraph.load( linksFilename, titlesFilename );
+        } catch ( IOException e ) {
+            System.err.println( "Could not read the link graph: " + e.getMessage() );
+            graph = null;
+            return;
+        }
+        for ( int i = 0; i < graph.numNodes; i++ ) {
+            if ( graph.titles[i] != null ) {
+                titleToId.put( graph.titles[i], i );
+            }
+        }
+        inBaseSet = new BitSet( graph.numNodes );
+        localIndex = new int[graph.numNodes];
     }
 
     /**
@@ -113,9 +171,205 @@ public class HITSRanker {
      * @param      titles  The titles of the documents in the root set
      */
     private void iterate(String[] titles) {
-        //
-        // YOUR CODE HERE
-        //
+        int[] root = new int[titles.length];
+        int n = 0;
+        for ( String title : titles ) {
+            Integer id = titleToId.get( title );
+            if ( id != null ) {
+                root[n++] = id;
+            }
+        }
+        Scores scores = hits( Arrays.copyOf( root, n ));
+        baseNodes = scores.nodes;
+        hubs = scores.hubs;
+        authorities = scores.authorities;
+    }
+
+
+    /**
+     * Hub and authority scores of the nodes in a base set
+     */
+    static class Scores {
+        final int[] nodes;
+        final double[] hubs, authorities;
+
+        Scores( int[] nodes, double[] hubs, double[] authorities ) {
+            this.nodes = nodes;
+            this.hubs = hubs;
+            this.authorities = authorities;
+        }
+    }
+
+
+    /**
+     * Expands a root set to its base set (the root nodes together with all
+     * nodes they link to or are linked from), and runs HITS on the subgraph
+     * induced by the base set.
+     *
+     * @param      root  Internal indexes of the root set nodes
+     */
+    Scores hits( int[] root ) {
+        int[] nodes;
+        int[][] sub;
+        synchronized ( inBaseSet ) {
+            for ( int r : root ) {
+                inBaseSet.set( r );
+                for ( int e = graph.outStart[r]; e < graph.outStart[r + 1]; e++ ) {
+                    inBaseSet.set( graph.outEdges[e] );
+                }
+                for ( int e = graph.inStart[r]; e < graph.inStart[r + 1]; e++ ) {
+                    inBaseSet.set( graph.inEdges[e] );
+                }
+            }
+            nodes = new int[inBaseSet.cardinality()];
+            int k = 0;
+            for ( int i = inBaseSet.nextSetBit( 0 ); i >= 0; i = inBaseSet.nextSetBit( i + 1 )) {
+                localIndex[i] = k;
+                nodes[k++] = i;
+            }
+            if ( nodes.length == graph.numNodes ) {
+                // the base set is the whole graph, no need to copy it
+                sub = new int[][] { graph.outStart, graph.outEdges, graph.inStart, graph.inEdges };
+            } else {
+                int[][] out = subgraph( nodes, graph.outStart, graph.outEdges );
+                int[][] in = subgraph( nodes, graph.inStart, graph.inEdges );
+                sub = new int[][] { out[0], out[1], in[0], in[1] };
+            }
+            inBaseSet.clear();
+        }
+        double[][] ha = iterate( nodes.length, sub[0], sub[1], sub[2], sub[3] );
+        return new Scores( nodes, ha[0], ha[1] );
+    }
+
+
+    /**
+     * Restricts CSR rows and columns to the nodes of the base set, using
+     * the local numbering currently in localIndex.
+     */
+    private int[][] subgraph( int[] nodes, int[] rowStart, int[] cols ) {
+        int[] start = new int[nodes.length + 1];
+        for ( int k = 0; k < nodes.length; k++ ) {
+            int count = 0;
+            for ( int e = rowStart[nodes[k]]; e < rowStart[nodes[k] + 1]; e++ ) {
+                if ( inBaseSet.get( cols[e] )) {
+                    count++;
+                }
+            }
+            start[k + 1] = start[k] + count;
+        }
+        int[] edges = new int[start[nodes.length]];
+        int w = 0;
+        for ( int k = 0; k < nodes.length; k++ ) {
+            for ( int e = rowStart[nodes[k]]; e < rowStart[nodes[k] + 1]; e++ ) {
+                if ( inBaseSet.get( cols[e] )) {
+                    edges[w++] = localIndex[cols[e]];
+                }
+            }
+        }
+        return new int[][] { start, edges };
+    }
+
+
+    /**
+     * Runs HITS until convergence on a graph given by its adjacency
+     * matrix and the transpose of it, both in CSR form.
+     *
+     * @return     The hub and authority scores
+     */
+    private double[][] iterate( int n, int[] outStart, int[] outEdges, int[] inStart, int[] inEdges ) {
+        double[] h = new double[n];
+        double[] a = new double[n];
+        Arrays.fill( h, 1.0 );
+        Arrays.fill( a, 1.0 );
+        normalize( h );
+        normalize( a );
+        double[] nextH = new double[n];
+        double[] nextA = new double[n];
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        for ( int step = 0; step < MAX_NUMBER_OF_STEPS; step++ ) {
+            // a = A^T h, then h = A a
+            pool.invoke( new SpMV( inStart, inEdges, h, nextA, 0, n ));
+            normalize( nextA );
+            pool.invoke( new SpMV( outStart, outEdges, nextA, nextH, 0, n ));
+            normalize( nextH );
+
+            Searcher.checkCancelled();
+            boolean converged = maxDiff( a, nextA ) < EPSILON && maxDiff( h, nextH ) < EPSILON;
+            double[] tmp = a; a = nextA; nextA = tmp;
+            tmp = h; h = nextH; nextH = tmp;
+            if ( converged ) {
+                break;
+            }
+        }
+        return new double[][] { h, a };
+    }
+
+
+    /**
+     * Sparse matrix-vector product y = M x, with M in CSR form. Row ranges
+     * larger than ROWS_PER_TASK are split in two and multiplied in parallel.
+     */
+    static class SpMV extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int[] rowStart, cols;
+        final double[] x, y;
+        final int from, to;
+
+        SpMV( int[] rowStart, int[] cols, double[] x, double[] y, int from, int to ) {
+            this.rowStart = rowStart;
+            this.cols = cols;
+            this.x = x;
+            this.y = y;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if ( to - from <= ROWS_PER_TASK ) {
+                for ( int i = from; i < to; i++ ) {
+                    double sum = 0;
+                    for ( int e = rowStart[i]; e < rowStart[i + 1]; e++ ) {
+                        sum += x[cols[e]];
+                    }
+                    y[i] = sum;
+                }
+            } else {
+                int mid = ( from + to ) >>> 1;
+                invokeAll( new SpMV( rowStart, cols, x, y, from, mid ),
+                           new SpMV( rowStart, cols, x, y, mid, to ));
+            }
+        }
+    }
+
+
+    /**
+     * Scales a vector to unit L2 length (unless it is all zeros).
+     */
+    static void normalize( double[] v ) {
+        double sum = 0;
+        for ( double d : v ) {
+            sum += d * d;
+        }
+        if ( sum > 0 ) {
+            double inv = 1.0 / Math.sqrt( sum );
+            for ( int i = 0; i < v.length; i++ ) {
+                v[i] *= inv;
+            }
+        }
+    }
+
+
+    /**
+     * Largest absolute difference between two vectors.
+     */
+    static double maxDiff( double[] v, double[] w ) {
+        double max = 0;
+        for ( int i = 0; i < v.length; i++ ) {
+            max = Math.max( max, Math.abs( v[i] - w[i] ));
+        }
+        return max;
     }
 
 
@@ -123,44 +377,186 @@ public class HITSRanker {
      * Rank the documents in the subgraph induced by the documents present
      * in the postings list `post`.
      *
+     * Documents of `post` that are not in the graph are put last.
+     *
      * @param      post  The list of postings fulfilling a certain information need
      *
      * @return     A list of postings ranked according to the hub and authority scores.
      */
     PostingsList rank(PostingsList post) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+        if (graph == null || post == null) {
+            return post;
+        }
+        int[][] mapping = mapDocuments();
+        int[] docToNode = mapping[0], nodeToDoc = mapping[1];
+
+        int[] root = new int[post.size()];
+        int n = 0;
+        for (int i = 0; i < post.size(); i++) {
+            int docID = post.get(i).docID;
+            if (docID < docToNode.length && docToNode[docID] >= 0) {
+                root[n++] = docToNode[docID];
+            }
+        }
+        root = Arrays.copyOf(root, n);
+        Arrays.sort(root);
+        RootSet key = new RootSet(root);
+
+        Ranking ranking;
+        synchronized (cache) {
+            ranking = cache.get(key);
+        }
+        if (ranking == null) {
+            ranking = new Ranking(hits(root), nodeToDoc);
+            synchronized (cache) {
+                cache.put(key, ranking);
+            }
+        }
+
+        PostingsList result = new PostingsList();
+        ArrayList<PostingsEntry> list = result.getList();
+        list.ensureCapacity(ranking.docIDs.length + post.size() - n);
+        for (int i = 0; i < ranking.docIDs.length; i++) {
+            PostingsEntry entry = new PostingsEntry(ranking.docIDs[i]);
+            entry.score = ranking.scores[i];
+            list.add(entry);
+        }
+        // documents that are not in the graph come last, in their original order
+        for (int i = 0; i < post.size(); i++) {
+            int docID = post.get(i).docID;
+            if (docID >= docToNode.length || docToNode[docID] < 0) {
+                PostingsEntry entry = new PostingsEntry(docID);
+                entry.score = 0;
+                list.add(entry);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Matches the nodes of the graph with the documents of the index by
+     * file name. Done once, on the first query after the index changed.
+     *
+     * @return     The docID to node and node to docID mappings
+     */
+    private synchronized int[][] mapDocuments() {
+        if (nodeToDoc != null) {
+            return new int[][] { docToNode, nodeToDoc };
+        }
+        int numDocs = index.getDocIDLimit();
+        int[] n2d = new int[graph.numNodes];
+        int[] d2n = new int[numDocs];
+        Arrays.fill(n2d, -1);
+        Arrays.fill(d2n, -1);
+        for (int docID = 0; docID < numDocs; docID++) {
+            String name = index.getDocName(docID);
+            Integer node = name == null ? null : titleToId.get(getFileName(name));
+            if (node != null) {
+                n2d[node] = docID;
+                d2n[docID] = node;
+            }
+        }
+        docToNode = d2n;
+        nodeToDoc = n2d;
+        return new int[][] { d2n, n2d };
+    }
+
+
+    /**
+     * Forgets the document mapping and the cached rankings. Must be called
+     * when the documents of the index have changed.
+     */
+    void clearCache() {
+        synchronized (this) {
+            docToNode = null;
+            nodeToDoc = null;
+        }
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+
+    /**
+     * A sorted root set, usable as a hash key
+     */
+    static class RootSet {
+        final int[] nodes;
+        final int hash;
+
+        RootSet(int[] nodes) {
+            this.nodes = nodes;
+            this.hash = Arrays.hashCode(nodes);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object other) {
+            return other instanceof RootSet && Arrays.equals(nodes, ((RootSet)other).nodes);
+        }
     }
 
 
     /**
-     * Sort a hash map by values in the descending order
+     * A compact query-time ranking: the indexed documents of the base set
+     * in descending order of score
+     */
+    static class Ranking {
+        final int[] docIDs;
+        final double[] scores;
+
+        Ranking(Scores s, int[] nodeToDoc) {
+            Integer[] order = new Integer[s.nodes.length];
+            double[] combined = new double[s.nodes.length];
+            int n = 0;
+            for (int k = 0; k < s.nodes.length; k++) {
+                if (nodeToDoc[s.nodes[k]] >= 0) {
+                    combined[k] = AUTHORITY_WEIGHT * s.authorities[k] + (1 - AUTHORITY_WEIGHT) * s.hubs[k];
+                    order[n++] = k;
+                }
+            }
+            Arrays.sort(order, 0, n, (i, j) -> Double.compare(combined[j], combined[i]));
+            docIDs = new int[n];
+            scores = new double[n];
+            for (int i = 0; i < n; i++) {
+                docIDs[i] = nodeToDoc[s.nodes[order[i]]];
+                scores[i] = combined[order[i]];
+            }
+        }
+    }
+
+
+    /**
+     * Pick the `k` highest scores and map them from the nodeIDs used in
+     * the links file, in descending order of score
      *
-     * @param      map    A hash map to sorted
+     * @param      scores  Scores aligned with baseNodes
+     * @param      k       A number of entries to keep
      *
      * @return     A hash map sorted by values
      */
-    private HashMap<Integer,Double> sortHashMapByValue(HashMap<Integer,Double> map) {
-        if (map == null) {
+    private HashMap<Integer,Double> topScores(double[] scores, int k) {
+        if (scores == null) {
             return null;
-        } else {
-            List<Map.Entry<Integer,Double> > list = new ArrayList<Map.Entry<Integer,Double> >(map.entrySet());
-      
-            Collections.sort(list, new Comparator<Map.Entry<Integer,Double>>() {
-                public int compare(Map.Entry<Integer,Double> o1, Map.Entry<Integer,Double> o2) { 
-                    return (o2.getValue()).compareTo(o1.getValue()); 
-                } 
-            }); 
-              
-            HashMap<Integer,Double> res = new LinkedHashMap<Integer,Double>(); 
-            for (Map.Entry<Integer,Double> el : list) { 
-                res.put(el.getKey(), el.getValue()); 
+        }
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>((i, j) -> Double.compare(scores[i], scores[j]));
+        for (int i = 0; i < scores.length; i++) {
+            heap.add(i);
+            if (heap.size() > k) {
+                heap.poll();
             }
-            return res;
         }
-    } 
+        Integer[] best = heap.toArray(new Integer[0]);
+        Arrays.sort(best, (i, j) -> Double.compare(scores[j], scores[i]));
+        HashMap<Integer,Double> res = new LinkedHashMap<Integer,Double>();
+        for (int i : best) {
+            res.put(Integer.parseInt(graph.nodeIDs[baseNodes[i]]), scores[i]);
+        }
+        return res;
+    }
 
 
     /**
@@ -193,9 +589,12 @@ public class HITSRanker {
      *  authorities_top_30.txt with documents containing top 30 authority scores
      */
     void rank() {
+        if (graph == null) {
+            return;
+        }
         iterate(titleToId.keySet().toArray(new String[0]));
-        HashMap<Integer,Double> sortedHubs = sortHashMapByValue(hubs);
-        HashMap<Integer,Double> sortedAuthorities = sortHashMapByValue(authorities);
+        HashMap<Integer,Double> sortedHubs = topScores(hubs, 30);
+        HashMap<Integer,Double> sortedAuthorities = topScores(authorities, 30);
         writeToFile(sortedHubs, "hubs_top_30.txt", 30);
         writeToFile(sortedAuthorities, "authorities_top_30.txt", 30);
     }
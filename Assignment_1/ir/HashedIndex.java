@@ -10,6 +10,7 @@ package ir;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.function.Consumer;
 
 
 /**
@@ -21,6 +22,17 @@ public class HashedIndex implements Index {
     /** The index as a hashtable. */
     private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** Called with every term the first time it is inserted. */
+    private Consumer<String> newTermListener = null;
+
+
+    /**
+     *  Registers a listener for new terms.
+     */
+    public void setNewTermListener( Consumer<String> listener ) {
+        newTermListener = listener;
+    }
+
 
     /**
      *  Inserts this token in the hashtable.
@@ -31,6 +43,9 @@ public class HashedIndex implements Index {
             PostingsList pl = new PostingsList();
             pl.add(new PostingsEntry(docID, offset));
             index.put(token, pl);
+            if (newTermListener != null){
+                newTermListener.accept(token);
+            }
         }
         else if (!getPostings(token).isContainById(docID)){
             // if the token exists, but it does not contain the docID, create a new entry and insert
@@ -52,6 +67,31 @@ public class HashedIndex implements Index {
     }
 
 
+    /**
+     *  Returns the number of documents containing a term.
+     */
+    public int getDocumentFrequency( String token ) {
+        PostingsList pl = index.get(token);
+        return pl == null ? 0 : pl.size();
+    }
+
+
+    /**
+     *  Returns the number of occurrences of a term in all documents.
+     */
+    public long getCollectionFrequency( String token ) {
+        PostingsList pl = index.get(token);
+        if (pl == null) {
+            return 0;
+        }
+        long cf = 0;
+        for (int i = 0; i < pl.size(); i++) {
+            cf += pl.get(i).offsets.size();
+        }
+        return cf;
+    }
+
+
     /**
      *  No need for cleanup in a HashedIndex.
      */
@@ -9,6 +9,7 @@ package ir;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.function.Consumer;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -25,9 +26,50 @@ public interface Index {
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
 
+    /**
+     *  Registers a listener that is called with every term the first time
+     *  it is inserted into the index (null removes the listener).
+     */
+    public void setNewTermListener( Consumer<String> listener );
+
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
 
+    /** Returns the number of documents containing a term (0 if it is not in the index). */
+    public int getDocumentFrequency( String token );
+
+    /** Returns the total number of occurrences of a term in all documents (0 if it is not in the index). */
+    public long getCollectionFrequency( String token );
+
+    /** Returns the name of a document, or null if the docID is unknown. */
+    public default String getDocName( int docID ) {
+        return docNames.get( docID );
+    }
+
+    /** Returns the length of a document, or -1 if the docID is unknown. */
+    public default int getDocLength( int docID ) {
+        Integer len = docLengths.get( docID );
+        return len == null ? -1 : len;
+    }
+
+    /** Returns the number of indexed documents. */
+    public default int getNumberOfDocs() {
+        return docNames.size();
+    }
+
+    /**
+     *  Returns one more than the largest docID, for sizing arrays indexed
+     *  by docID. DocIDs may have gaps (files that could not be read), so
+     *  this can be larger than the number of documents.
+     */
+    public default int getDocIDLimit() {
+        int limit = 0;
+        for ( Integer docID : docNames.keySet() ) {
+            limit = Math.max( limit, docID + 1 );
+        }
+        return limit;
+    }
+
     /** This method is called on exit. */
     public void cleanup();
 
@@ -29,6 +29,9 @@ public class Indexer {
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
+    /** Writes the text and token offsets of every document, or null. */
+    SnippetStore.Writer snippetWriter = null;
+
 
     /* ----------------------------------------------- */
 
@@ -38,6 +41,19 @@ public class Indexer {
         this.index = index;
         this.kgIndex = kgIndex;
         this.patterns_file = patterns_file;
+        // the k-gram index only needs to see every distinct term once
+        if ( kgIndex != null ) {
+            index.setNewTermListener( kgIndex::insert );
+        }
+    }
+
+
+    /**
+     *  Makes the indexer store the text and token offsets of every
+     *  document it indexes (null to stop).
+     */
+    public void setSnippetWriter( SnippetStore.Writer writer ) {
+        snippetWriter = writer;
     }
 
 
@@ -70,12 +86,28 @@ public class Indexer {
                     if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
                     try {
                         Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
+                        SnippetStore.RecordingReader recorder = null;
+                        if ( snippetWriter != null ) {
+                            recorder = new SnippetStore.RecordingReader( reader );
+                            reader = recorder;
+                        }
                         Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
+                        tok.record_offsets = recorder != null;
                         int offset = 0;
+                        int[] charOffsets = recorder == null ? null : new int[1024];
                         while ( tok.hasMoreTokens() ) {
                             String token = tok.nextToken();
+                            if ( recorder != null ) {
+                                if ( offset == charOffsets.length ) {
+                                    charOffsets = Arrays.copyOf( charOffsets, offset * 2 );
+                                }
+                                charOffsets[offset] = (int) tok.lastTokenOffset();
+                            }
                             insertIntoIndex( docID, token, offset++ );
                         }
+                        if ( recorder != null ) {
+                            snippetWriter.add( docID, recorder.text, charOffsets, offset );
+                        }
                         index.docNames.put( docID, f.getPath() );
                         index.docLengths.put( docID, offset );
                         reader.close();
@@ -96,8 +128,6 @@ public class Indexer {
      */
     public void insertIntoIndex( int docID, String token, int offset ) {
         index.insert( token, docID, offset );
-        if (kgIndex != null)
-            kgIndex.insert(token);
     }
 }
 
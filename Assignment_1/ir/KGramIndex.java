@@ -9,19 +9,22 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 
 
 public class KGramIndex {
 
-    /** Mapping from term ids to actual term strings */
-    HashMap<Integer,String> id2term = new HashMap<Integer,String>();
+    /** Mapping from term ids to actual term strings, indexed by term id */
+    ArrayList<String> id2term = new ArrayList<String>();
 
     /** Mapping from term strings to term ids */
     HashMap<String,Integer> term2id = new HashMap<String,Integer>();
 
-    /** Index from k-grams to list of term ids that contain the k-gram */
-    HashMap<String,List<KGramPostingsEntry>> index = new HashMap<String,List<KGramPostingsEntry>>();
+    /** Index from k-grams to the sorted list of term ids that contain the k-gram */
+    HashMap<String,TermIDList> index = new HashMap<String,TermIDList>();
 
     /** The ID of the last processed term */
     int lastTermID = -1;
@@ -29,6 +32,20 @@ public class KGramIndex {
     /** Number of symbols to form a K-gram */
     int K = 3;
 
+    /** The k-gram index file name (in the directory of the persistent index) */
+    public static final String KGRAMS_FNAME = "kgrams";
+
+    /** Identifies a k-gram index file. */
+    public static final int MAGIC = 0x4b47524d;
+
+    /**
+     *  Views of a memory-mapped k-gram index file, or null if the index
+     *  lives in the hash maps above. See <code>writeIndex</code> for the layout.
+     */
+    private IntBuffer termOffsets, termOrder, kgramOffsets, postingsStart, postings;
+    private ByteBuffer termArena, kgramArena;
+    private int numKGrams;
+
     public KGramIndex(int k) {
         K = k;
         if (k <= 0) {
@@ -37,6 +54,38 @@ public class KGramIndex {
         }
     }
 
+    /**
+     *  A growable, sorted array of term ids. Term ids are handed out in
+     *  increasing order, so appending keeps the array sorted.
+     */
+    static class TermIDList {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            // a term can contain the same k-gram several times
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        /** Returns a copy of the ids, which the caller may modify. */
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        /** Drops the unused capacity. Not safe while the list is being read. */
+        void trimToSize() {
+            if (ids.length != size) {
+                ids = Arrays.copyOf(ids, size);
+            }
+        }
+    }
+
     /** Generate the ID for an unknown term */
     private int generateTermID() {
         return ++lastTermID;
@@ -47,40 +96,292 @@ public class KGramIndex {
     }
 
 
+    /** Number of terms in the index */
+    public int size() {
+        return lastTermID + 1;
+    }
+
+
     /**
      *  Get intersection of two postings lists
      */
-    private List<KGramPostingsEntry> intersect(List<KGramPostingsEntry> p1, List<KGramPostingsEntry> p2) {
-        // 
-        // YOUR CODE HERE
-        //
-        return null;
+    public int[] intersect(int[] p1, int[] p2) {
+        int[] result = new int[Math.min(p1.length, p2.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < p1.length && j < p2.length) {
+            if (p1[i] == p2[j]) {
+                result[n++] = p1[i];
+                i++;
+                j++;
+            } else if (p1[i] < p2[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+
+    /**
+     *  Get intersection of several postings lists. The lists are merged
+     *  shortest first, so the intermediate results stay as small as possible.
+     */
+    public int[] intersect(List<int[]> postings) {
+        if (postings.isEmpty()) {
+            return new int[0];
+        }
+        int[][] lists = postings.toArray(new int[0][]);
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+
+    /**
+     *  Returns the distinct k-grams of a term, including the k-grams
+     *  with the boundary markers ^ and $.
+     */
+    public LinkedHashSet<String> getKGrams(String term) {
+        String s = "^" + term + "$";
+        LinkedHashSet<String> kgrams = new LinkedHashSet<String>();
+        for (int i = 0; i + K <= s.length(); i++) {
+            kgrams.add(s.substring(i, i + K));
+        }
+        return kgrams;
     }
 
 
     /** Inserts all k-grams from a token into the index. */
     public void insert( String token ) {
-        //
-        // YOUR CODE HERE
-        //
+        if (termOffsets != null) {
+            throw new IllegalStateException("A k-gram index read from disk can't be extended");
+        }
+        if (term2id.containsKey(token)) {
+            return;
+        }
+        int id = generateTermID();
+        id2term.add(token);
+        term2id.put(token, id);
+        String s = "^" + token + "$";
+        for (int i = 0; i + K <= s.length(); i++) {
+            String kgram = s.substring(i, i + K);
+            TermIDList list = index.get(kgram);
+            if (list == null) {
+                list = new TermIDList();
+                index.put(kgram, list);
+            }
+            list.add(id);
+        }
     }
 
-    /** Get postings for the given k-gram */
-    public List<KGramPostingsEntry> getPostings(String kgram) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+    /**
+     *  Drops the unused capacity of the postings. Called once when
+     *  indexing is done, before the index is searched.
+     */
+    public void trimToSize() {
+        for (TermIDList list : index.values()) {
+            list.trimToSize();
+        }
+        id2term.trimToSize();
+    }
+
+    /**
+     *  Get postings for the given k-gram, sorted by term id. The array is
+     *  a copy, so the caller may modify it.
+     */
+    public int[] getPostings(String kgram) {
+        if (termOffsets != null) {
+            int i = search(kgramArena, kgramOffsets, null, numKGrams, kgram);
+            if (i < 0) {
+                return null;
+            }
+            int[] result = new int[postingsStart.get(i + 1) - postingsStart.get(i)];
+            IntBuffer view = postings.duplicate();
+            view.position(postingsStart.get(i));
+            view.get(result);
+            return result;
+        }
+        TermIDList list = index.get(kgram);
+        return list == null ? null : list.toArray();
     }
 
     /** Get id of a term */
     public Integer getIDByTerm(String term) {
+        if (termOffsets != null) {
+            int i = search(termArena, termOffsets, termOrder, size(), term);
+            return i < 0 ? null : i;
+        }
         return term2id.get(term);
     }
 
     /** Get a term by the given id */
     public String getTermByID(Integer id) {
-        return id2term.get(id);
+        if (termOffsets != null) {
+            return id == null || id < 0 || id >= size() ? null : decode(termArena, termOffsets, id);
+        }
+        return id == null || id < 0 || id >= id2term.size() ? null : id2term.get(id);
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Writes the index to a binary file with the layout
+     *
+     *    MAGIC | K | numTerms | numKGrams                       (ints)
+     *    termOffsets   (numTerms+1 ints, into the term arena, by term id)
+     *    termOrder     (numTerms ints, the term ids sorted by term)
+     *    kgramOffsets  (numKGrams+1 ints, into the k-gram arena, k-grams sorted)
+     *    postingsStart (numKGrams+1 ints, into the postings)
+     *    postings      (the sorted term ids of every k-gram, back to back)
+     *    term arena, k-gram arena (UTF-8 bytes)
+     */
+    public void writeIndex(String fname) throws IOException {
+        int numTerms = size();
+        byte[][] terms = new byte[numTerms][];
+        for (int id = 0; id < numTerms; id++) {
+            terms[id] = getTermByID(id).getBytes(StandardCharsets.UTF_8);
+        }
+        Integer[] order = new Integer[numTerms];
+        for (int id = 0; id < numTerms; id++) {
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> getTermByID(a).compareTo(getTermByID(b)));
+        String[] kgrams = index.keySet().toArray(new String[0]);
+        Arrays.sort(kgrams);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fname), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(K);
+            out.writeInt(numTerms);
+            out.writeInt(kgrams.length);
+            int offset = 0;
+            for (byte[] t : terms) {
+                out.writeInt(offset);
+                offset += t.length;
+            }
+            out.writeInt(offset);
+            for (int id : order) {
+                out.writeInt(id);
+            }
+            offset = 0;
+            byte[][] encoded = new byte[kgrams.length][];
+            for (int i = 0; i < kgrams.length; i++) {
+                encoded[i] = kgrams[i].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(offset);
+                offset += encoded[i].length;
+            }
+            out.writeInt(offset);
+            offset = 0;
+            for (String kgram : kgrams) {
+                out.writeInt(offset);
+                offset += index.get(kgram).size;
+            }
+            out.writeInt(offset);
+            for (String kgram : kgrams) {
+                TermIDList list = index.get(kgram);
+                for (int i = 0; i < list.size; i++) {
+                    out.writeInt(list.ids[i]);
+                }
+            }
+            for (byte[] t : terms) {
+                out.write(t);
+            }
+            for (byte[] kg : encoded) {
+                out.write(kg);
+            }
+        }
+    }
+
+
+    /**
+     *  Memory-maps an index written by <code>writeIndex</code>, replacing
+     *  the contents of this index. The index is read-only afterwards.
+     */
+    public void readIndex(String fname) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fname, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException(fname + " is not a k-gram index file");
+            }
+            K = buffer.getInt(4);
+            int numTerms = buffer.getInt(8);
+            numKGrams = buffer.getInt(12);
+
+            int pos = 16;
+            termOffsets = intView(buffer, pos, numTerms + 1);
+            pos += (numTerms + 1) * Integer.BYTES;
+            termOrder = intView(buffer, pos, numTerms);
+            pos += numTerms * Integer.BYTES;
+            kgramOffsets = intView(buffer, pos, numKGrams + 1);
+            pos += (numKGrams + 1) * Integer.BYTES;
+            postingsStart = intView(buffer, pos, numKGrams + 1);
+            pos += (numKGrams + 1) * Integer.BYTES;
+            int numPostings = postingsStart.get(numKGrams);
+            postings = intView(buffer, pos, numPostings);
+            pos += numPostings * Integer.BYTES;
+            termArena = byteView(buffer, pos, termOffsets.get(numTerms));
+            pos += termOffsets.get(numTerms);
+            kgramArena = byteView(buffer, pos, kgramOffsets.get(numKGrams));
+
+            lastTermID = numTerms - 1;
+            id2term.clear();
+            term2id.clear();
+            index.clear();
+        }
+    }
+
+    private static IntBuffer intView(ByteBuffer buffer, int pos, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(pos);
+        b.limit(pos + length * Integer.BYTES);
+        return b.slice().asIntBuffer();
+    }
+
+    private static ByteBuffer byteView(ByteBuffer buffer, int pos, int length) {
+        ByteBuffer b = buffer.duplicate();
+        b.position(pos);
+        b.limit(pos + length);
+        return b.slice();
+    }
+
+    /** Decodes the i:th string of an arena */
+    private static String decode(ByteBuffer arena, IntBuffer offsets, int i) {
+        byte[] data = new byte[offsets.get(i + 1) - offsets.get(i)];
+        ByteBuffer view = arena.duplicate();
+        view.position(offsets.get(i));
+        view.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     *  Binary search for a string in an arena. If <code>order</code> is
+     *  non-null, it gives the sorted order of the strings; otherwise the
+     *  strings are stored sorted.
+     *
+     *  @return The number of the string in the arena, or -1 if it is not there.
+     */
+    private static int search(ByteBuffer arena, IntBuffer offsets, IntBuffer order, int n, String key) {
+        int lo = 0, hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int i = order == null ? mid : order.get(mid);
+            int cmp = decode(arena, offsets, i).compareTo(key);
+            if (cmp == 0) {
+                return i;
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
     }
 
     private static HashMap<String,String> decodeArgs( String[] args ) {
@@ -130,30 +431,31 @@ public class KGramIndex {
         }
 
         String[] kgrams = args.get("kgram").split(" ");
-        List<KGramPostingsEntry> postings = null;
+        int[] postings = null;
         for (String kgram : kgrams) {
             if (kgram.length() != k) {
                 System.err.println("Cannot search k-gram index: " + kgram.length() + "-gram provided instead of " + k + "-gram");
                 System.exit(1);
             }
 
-            if (postings == null) {
-                postings = kgIndex.getPostings(kgram);
-            } else {
-                postings = kgIndex.intersect(postings, kgIndex.getPostings(kgram));
+            int[] p = kgIndex.getPostings(kgram);
+            if (p == null) {
+                postings = null;
+                break;
             }
+            postings = postings == null ? p : kgIndex.intersect(postings, p);
         }
         if (postings == null) {
             System.err.println("Found 0 posting(s)");
         } else {
-            int resNum = postings.size();
+            int resNum = postings.length;
             System.err.println("Found " + resNum + " posting(s)");
             if (resNum > 10) {
                 System.err.println("The first 10 of them are:");
                 resNum = 10;
             }
             for (int i = 0; i < resNum; i++) {
-                System.err.println(kgIndex.getTermByID(postings.get(i).tokenID));
+                System.err.println(kgIndex.getTermByID(postings[i]));
             }
         }
     }
@@ -0,0 +1,240 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ *   An immutable link graph stored in compressed sparse row (CSR) form.
+ *
+ *   Every node in the links file is given a dense internal index
+ *   0..numNodes-1. The out-links of node i are
+ *   outEdges[outStart[i]] .. outEdges[outStart[i+1]-1], and the in-links
+ *   are stored the same way in inStart/inEdges (the transposed graph).
+ *   Duplicate links are dropped.
+ *
+ *   Each line in the links file has the format
+ *     nodeID;outNodeID1,outNodeID2,...,outNodeIDK
+ *   and each line in the (optional) titles file has the format
+ *     nodeID;pageTitle
+ */
+public class LinkGraph {
+
+    /** Number of nodes in the graph. */
+    final int numNodes;
+
+    /** The nodeID used in the links file, indexed by internal index. */
+    final String[] nodeIDs;
+
+    /** The page title of every node, or null if it has none. */
+    final String[] titles;
+
+    /** Mapping from nodeIDs in the links file to internal indexes. */
+    final HashMap<String,Integer> nodeIndex;
+
+    /** CSR row pointers and column indexes of the out-links. */
+    final int[] outStart, outEdges;
+
+    /** CSR row pointers and column indexes of the in-links. */
+    final int[] inStart, inEdges;
+
+    /** Graphs already read by <code>load</code>, keyed by file names. */
+    private static final HashMap<String,LinkGraph> loaded = new HashMap<String,LinkGraph>();
+
+
+    /* --------------------------------------------- */
+
+
+    private LinkGraph( String[] nodeIDs, String[] titles, HashMap<String,Integer> nodeIndex,
+                       int[] outStart, int[] outEdges, int[] inStart, int[] inEdges ) {
+        this.numNodes = nodeIDs.length;
+        this.nodeIDs = nodeIDs;
+        this.titles = titles;
+        this.nodeIndex = nodeIndex;
+        this.outStart = outStart;
+        this.outEdges = outEdges;
+        this.inStart = inStart;
+        this.inEdges = inEdges;
+    }
+
+
+    /** Number of out-links of node <code>i</code>. */
+    int outDegree( int i ) {
+        return outStart[i + 1] - outStart[i];
+    }
+
+
+    /** Number of in-links of node <code>i</code>. */
+    int inDegree( int i ) {
+        return inStart[i + 1] - inStart[i];
+    }
+
+
+    /** Number of (distinct) links in the graph. */
+    int numEdges() {
+        return outEdges.length;
+    }
+
+
+    /** Returns the title of node <code>i</code>, falling back to its nodeID. */
+    String getTitle( int i ) {
+        return titles[i] != null ? titles[i] : nodeIDs[i];
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Returns the graph of a links file, reading it only the first time
+     *  it is asked for. Since the graph is immutable, the same instance is
+     *  shared by all callers.
+     */
+    public static LinkGraph load( String linksFilename, String titlesFilename ) throws IOException {
+        String key = linksFilename + "\n" + titlesFilename;
+        synchronized ( loaded ) {
+            LinkGraph graph = loaded.get( key );
+            if ( graph == null ) {
+                graph = read( linksFilename, titlesFilename );
+                loaded.put( key, graph );
+            }
+            return graph;
+        }
+    }
+
+
+    /**
+     *  Reads a links file (and optionally a titles file) into a graph.
+     *
+     *  @param linksFilename  File containing the links of the graph
+     *  @param titlesFilename File mapping nodeIDs to page titles, or null
+     */
+    public static LinkGraph read( String linksFilename, String titlesFilename ) throws IOException {
+        HashMap<String,Integer> nodeIndex = new HashMap<String,Integer>();
+        String[] nodeIDs = new String[1024];
+        int[] src = new int[1024];
+        int[] dst = new int[1024];
+        int numEdges = 0;
+
+        try ( BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( linksFilename ), StandardCharsets.UTF_8 ))) {
+            String line;
+            while (( line = in.readLine() ) != null ) {
+                int sep = line.indexOf( ';' );
+                if ( sep < 0 ) {
+                    continue;
+                }
+                int from = indexOf( line.substring( 0, sep ).trim(), nodeIndex, nodeIDs );
+                if ( nodeIndex.size() > nodeIDs.length / 2 ) {
+                    nodeIDs = Arrays.copyOf( nodeIDs, nodeIDs.length * 2 );
+                }
+                int start = sep + 1;
+                while ( start < line.length() ) {
+                    int end = line.indexOf( ',', start );
+                    if ( end < 0 ) {
+                        end = line.length();
+                    }
+                    String target = line.substring( start, end ).trim();
+                    start = end + 1;
+                    if ( target.isEmpty() ) {
+                        continue;
+                    }
+                    int to = indexOf( target, nodeIndex, nodeIDs );
+                    if ( nodeIndex.size() > nodeIDs.length / 2 ) {
+                        nodeIDs = Arrays.copyOf( nodeIDs, nodeIDs.length * 2 );
+                    }
+                    if ( numEdges == src.length ) {
+                        src = Arrays.copyOf( src, src.length * 2 );
+                        dst = Arrays.copyOf( dst, dst.length * 2 );
+                    }
+                    src[numEdges] = from;
+                    dst[numEdges] = to;
+                    numEdges++;
+                }
+            }
+        }
+
+        int n = nodeIndex.size();
+        nodeIDs = Arrays.copyOf( nodeIDs, n );
+        int[][] out = buildCSR( n, src, dst, numEdges );
+        int[][] in = buildCSR( n, dst, src, numEdges );
+
+        String[] titles = new String[n];
+        if ( titlesFilename != null ) {
+            try ( BufferedReader in2 = new BufferedReader( new InputStreamReader( new FileInputStream( titlesFilename ), StandardCharsets.UTF_8 ))) {
+                String line;
+                while (( line = in2.readLine() ) != null ) {
+                    int sep = line.indexOf( ';' );
+                    if ( sep < 0 ) {
+                        continue;
+                    }
+                    Integer i = nodeIndex.get( line.substring( 0, sep ).trim() );
+                    if ( i != null ) {
+                        titles[i] = line.substring( sep + 1 ).trim();
+                    }
+                }
+            }
+        }
+        return new LinkGraph( nodeIDs, titles, nodeIndex, out[0], out[1], in[0], in[1] );
+    }
+
+
+    /**
+     *  Returns the internal index of a nodeID, assigning a new one if the
+     *  nodeID has not been seen before. The caller makes sure
+     *  <code>nodeIDs</code> has room for one more node.
+     */
+    private static int indexOf( String nodeID, HashMap<String,Integer> nodeIndex, String[] nodeIDs ) {
+        Integer i = nodeIndex.get( nodeID );
+        if ( i == null ) {
+            i = nodeIndex.size();
+            nodeIndex.put( nodeID, i );
+            nodeIDs[i] = nodeID;
+        }
+        return i;
+    }
+
+
+    /**
+     *  Builds CSR arrays {rowStart, columns} from an edge list by counting
+     *  sort on the row. Columns are sorted within every row, and duplicate
+     *  edges are removed.
+     */
+    private static int[][] buildCSR( int n, int[] rows, int[] cols, int numEdges ) {
+        int[] start = new int[n + 1];
+        for ( int e = 0; e < numEdges; e++ ) {
+            start[rows[e] + 1]++;
+        }
+        for ( int i = 0; i < n; i++ ) {
+            start[i + 1] += start[i];
+        }
+        int[] fill = Arrays.copyOf( start, n );
+        int[] edges = new int[numEdges];
+        for ( int e = 0; e < numEdges; e++ ) {
+            edges[fill[rows[e]]++] = cols[e];
+        }
+
+        // sort each row and compact away duplicates
+        int[] compactStart = new int[n + 1];
+        int w = 0;
+        for ( int i = 0; i < n; i++ ) {
+            compactStart[i] = w;
+            Arrays.sort( edges, start[i], start[i + 1] );
+            int prev = -1;
+            for ( int e = start[i]; e < start[i + 1]; e++ ) {
+                if ( edges[e] != prev ) {
+                    edges[w++] = edges[e];
+                }
+                prev = edges[e];
+            }
+        }
+        compactStart[n] = w;
+        return new int[][] { compactStart, Arrays.copyOf( edges, w ) };
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.IntStream;
+
+
+/**
+ *   Computes the PageRank of every page in a links file by power
+ *   iteration, or approximately by Monte Carlo random walks, and writes
+ *   the result to a binary rank file that the Searcher can load (see
+ *   the -r option of the Engine).
+ *
+ *   The rank file is laid out as
+ *     MAGIC (int) | numPages (int) | { title (UTF), rank (double) } * numPages
+ */
+public class PageRank {
+
+    /** Identifies a rank file. */
+    public static final int MAGIC = 0x50524b31;
+
+    /** Maximal number of iterations. */
+    final static int MAX_NUMBER_OF_ITERATIONS = 1000;
+
+    /** Convergence criterion: the L1 change of the rank vector. */
+    final static double EPSILON = 0.0001;
+
+    /** Probability that the surfer gets bored and jumps to a random page. */
+    final static double BORED = 0.15;
+
+    /** Number of nodes every parallel task works on. */
+    final static int CHUNK_SIZE = 4096;
+
+    /** Number of top documents compared in the Monte Carlo accuracy report. */
+    final static int REPORT_SIZE = 30;
+
+    /** The link graph. */
+    LinkGraph graph;
+
+
+    /* --------------------------------------------- */
+
+
+    public PageRank( LinkGraph graph ) {
+        this.graph = graph;
+    }
+
+
+    /**
+     *  Runs power iteration until the rank vector changes less than
+     *  EPSILON. Pages without out-links (dangling nodes) are treated as
+     *  linking to every page, which is done by spreading their total rank
+     *  uniformly instead of materializing the links.
+     *
+     *  The iteration pulls rank along the in-links, so every node's new
+     *  value is computed independently and the nodes are split in chunks
+     *  that are processed in parallel.
+     *
+     *  @return The PageRank of every node, indexed by internal index.
+     */
+    double[] iterate() {
+        final int n = graph.numNodes;
+        final int[] inStart = graph.inStart;
+        final int[] inEdges = graph.inEdges;
+        final double[] invOutDegree = new double[n];
+        for ( int i = 0; i < n; i++ ) {
+            int d = graph.outDegree( i );
+            invOutDegree[i] = d == 0 ? 0 : 1.0 / d;
+        }
+
+        double[] rank = new double[n];
+        Arrays.fill( rank, 1.0 / n );
+        final double[] contrib = new double[n];
+        final double[] next = new double[n];
+        int numChunks = ( n + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+
+        for ( int iter = 0; iter < MAX_NUMBER_OF_ITERATIONS; iter++ ) {
+            final double[] cur = rank;
+            double dangling = 0;
+            for ( int i = 0; i < n; i++ ) {
+                contrib[i] = cur[i] * invOutDegree[i];
+                if ( invOutDegree[i] == 0 ) {
+                    dangling += cur[i];
+                }
+            }
+            final double base = BORED / n + ( 1 - BORED ) * dangling / n;
+
+            double diff = IntStream.range( 0, numChunks ).parallel().mapToDouble( c -> {
+                int from = c * CHUNK_SIZE, to = Math.min( n, from + CHUNK_SIZE );
+                double localDiff = 0;
+                for ( int i = from; i < to; i++ ) {
+                    double sum = 0;
+                    for ( int e = inStart[i]; e < inStart[i + 1]; e++ ) {
+                        sum += contrib[inEdges[e]];
+                    }
+                    next[i] = base + ( 1 - BORED ) * sum;
+                    localDiff += Math.abs( next[i] - cur[i] );
+                }
+                return localDiff;
+            }).sum();
+
+            System.arraycopy( next, 0, rank, 0, n );
+            if ( diff < EPSILON ) {
+                System.err.println( "PageRank converged after " + ( iter + 1 ) + " iterations" );
+                break;
+            }
+        }
+        return rank;
+    }
+
+
+    /**
+     *  Estimates PageRank by Monte Carlo simulation ("complete path,
+     *  cyclic start, stopping at dangling nodes"): <code>walksPerNode</code>
+     *  random walks are started from every node, each walk continues
+     *  along a random out-link with probability 1-BORED and stops when the
+     *  surfer gets bored or reaches a dangling node. The rank of a node is
+     *  its share of all visits made by all walks.
+     *
+     *  The start nodes are split between <code>numThreads</code> threads,
+     *  each with its own random generator and visit counters, which are
+     *  summed up when all threads are done.
+     *
+     *  @return The estimated PageRank of every node, indexed by internal
+     *      index, or null if the calling thread was interrupted.
+     */
+    double[] monteCarlo( int walksPerNode, int numThreads, long seed ) {
+        final int n = graph.numNodes;
+        final int[] outStart = graph.outStart;
+        final int[] outEdges = graph.outEdges;
+        final int[][] visits = new int[numThreads][];
+        Thread[] threads = new Thread[numThreads];
+        SplittableRandom seeder = new SplittableRandom( seed );
+
+        for ( int t = 0; t < numThreads; t++ ) {
+            final int id = t;
+            final SplittableRandom random = seeder.split();
+            final int from = (int)( (long)n * t / numThreads );
+            final int to = (int)( (long)n * ( t + 1 ) / numThreads );
+            threads[t] = new Thread( () -> {
+                int[] count = new int[n];
+                for ( int start = from; start < to; start++ ) {
+                    for ( int w = 0; w < walksPerNode; w++ ) {
+                        int node = start;
+                        while ( true ) {
+                            count[node]++;
+                            int degree = outStart[node + 1] - outStart[node];
+                            if ( degree == 0 || random.nextDouble() < BORED ) {
+                                break;
+                            }
+                            node = outEdges[outStart[node] + random.nextInt( degree )];
+                        }
+                    }
+                }
+                visits[id] = count;
+            });
+            threads[t].start();
+        }
+
+        double[] rank = new double[n];
+        long total = 0;
+        for ( int t = 0; t < numThreads; t++ ) {
+            try {
+                threads[t].join();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            for ( int i = 0; i < n; i++ ) {
+                rank[i] += visits[t][i];
+                total += visits[t][i];
+            }
+        }
+        for ( int i = 0; i < n; i++ ) {
+            rank[i] /= total;
+        }
+        return rank;
+    }
+
+
+    /**
+     *  Prints how well an approximate rank vector matches the exact one on
+     *  the REPORT_SIZE highest ranked documents: the sum of squared
+     *  differences, and how many of the exact top documents are also in
+     *  the approximate top list.
+     */
+    void report( double[] exact, double[] approx, PrintStream out ) {
+        int[] exactTop = top( exact, REPORT_SIZE );
+        int[] approxTop = top( approx, REPORT_SIZE );
+        double sqDiff = 0;
+        for ( int i : exactTop ) {
+            sqDiff += ( exact[i] - approx[i] ) * ( exact[i] - approx[i] );
+        }
+        HashSet<Integer> approxSet = new HashSet<Integer>();
+        for ( int i : approxTop ) {
+            approxSet.add( i );
+        }
+        int overlap = 0;
+        for ( int i : exactTop ) {
+            if ( approxSet.contains( i )) {
+                overlap++;
+            }
+        }
+        out.println( String.format( "Sum of squared differences on the top %d: %.3e", exactTop.length, sqDiff ));
+        out.println( String.format( "Overlap of the top %d: %d", exactTop.length, overlap ));
+        out.println( String.format( "%-40s %10s %10s", "title", "exact", "approx" ));
+        for ( int i : exactTop ) {
+            out.println( String.format( "%-40s %10.5f %10.5f", graph.getTitle( i ), exact[i], approx[i] ));
+        }
+    }
+
+
+    /**
+     *  Returns the internal indexes of the <code>k</code> highest ranked
+     *  nodes, best first.
+     */
+    static int[] top( double[] rank, int k ) {
+        Integer[] order = new Integer[rank.length];
+        for ( int i = 0; i < rank.length; i++ ) {
+            order[i] = i;
+        }
+        Arrays.sort( order, ( a, b ) -> Double.compare( rank[b], rank[a] ));
+        int[] result = new int[Math.min( k, rank.length )];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = order[i];
+        }
+        return result;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Writes the rank of every page, keyed by page title, to a rank file.
+     */
+    void writeRanks( double[] rank, String fname ) throws IOException {
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname ), 1 << 16 ))) {
+            out.writeInt( MAGIC );
+            out.writeInt( graph.numNodes );
+            for ( int i = 0; i < graph.numNodes; i++ ) {
+                out.writeUTF( graph.getTitle( i ));
+                out.writeDouble( rank[i] );
+            }
+        }
+    }
+
+
+    /**
+     *  Reads a rank file into a map from page titles to PageRank.
+     */
+    public static HashMap<String,Double> readRanks( String fname ) throws IOException {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( fname ), 1 << 16 ))) {
+            if ( in.readInt() != MAGIC ) {
+                throw new IOException( fname + " is not a rank file" );
+            }
+            int numPages = in.readInt();
+            HashMap<String,Double> ranks = new HashMap<String,Double>( numPages * 2 );
+            for ( int i = 0; i < numPages; i++ ) {
+                String title = in.readUTF();
+                ranks.put( title, in.readDouble() );
+            }
+            return ranks;
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /** Prints usage information. */
+    static void printHelpMessage() {
+        System.err.println( "Usage: PageRank <links_file> <titles_file> <rank_file> [options]" );
+        System.err.println( "  -mc <n> : Monte Carlo estimation with n walks per page (optional)" );
+        System.err.println( "  -t <n>  : number of threads for Monte Carlo estimation (optional)" );
+        System.err.println( "  -cmp    : compare the Monte Carlo estimate with power iteration (optional, needs -mc)" );
+    }
+
+
+    public static void main( String[] args ) {
+        if ( args.length < 3 ) {
+            printHelpMessage();
+            return;
+        }
+        int walksPerNode = 0;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        boolean compare = false;
+        int i = 3;
+        while ( i < args.length ) {
+            if ( "-mc".equals( args[i] ) && i + 1 < args.length ) {
+                walksPerNode = Integer.parseInt( args[i + 1] );
+                i += 2;
+            } else if ( "-t".equals( args[i] ) && i + 1 < args.length ) {
+                numThreads = Integer.parseInt( args[i + 1] );
+                i += 2;
+            } else if ( "-cmp".equals( args[i] )) {
+                compare = true;
+                i++;
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                printHelpMessage();
+                return;
+            }
+        }
+        if ( walksPerNode < 0 || numThreads < 1 ) {
+            System.err.println( "The number of walks must be at least 0, and the number of threads at least 1" );
+            printHelpMessage();
+            return;
+        }
+        if ( compare && walksPerNode == 0 ) {
+            System.err.println( "-cmp compares a Monte Carlo estimate, so it needs -mc" );
+            printHelpMessage();
+            return;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            LinkGraph graph = LinkGraph.read( args[0], args[1] );
+            System.err.println( "Read " + graph.numNodes + " pages and " + graph.numEdges() + " links" );
+            PageRank pr = new PageRank( graph );
+            double[] rank;
+            if ( walksPerNode > 0 ) {
+                long mcStart = System.currentTimeMillis();
+                rank = pr.monteCarlo( walksPerNode, numThreads, System.nanoTime() );
+                if ( rank == null ) {
+                    System.err.println( "Monte Carlo estimation was interrupted" );
+                    return;
+                }
+                System.err.println( String.format( "Monte Carlo with %d walks per page on %d threads took %.1f seconds.",
+                                                   walksPerNode, numThreads, ( System.currentTimeMillis() - mcStart ) / 1000.0 ));
+                if ( compare ) {
+                    long exactStart = System.currentTimeMillis();
+                    double[] exact = pr.iterate();
+                    System.err.println( String.format( "Power iteration took %.1f seconds.", ( System.currentTimeMillis() - exactStart ) / 1000.0 ));
+                    pr.report( exact, rank, System.out );
+                }
+            } else {
+                rank = pr.iterate();
+            }
+            pr.writeRanks( rank, args[2] );
+            if ( !compare ) {
+                for ( int j : top( rank, REPORT_SIZE )) {
+                    System.out.println( graph.getTitle( j ) + ": " + String.format( "%.5f", rank[j] ));
+                }
+            }
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            System.err.println( String.format( "PageRank done in %.1f seconds.", elapsedTime / 1000.0 ));
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -9,7 +9,10 @@ package ir;
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.function.Consumer;
 import java.nio.charset.*;
 
 
@@ -23,6 +26,16 @@ import java.nio.charset.*;
  *   When words are read and indexed, they are first put in an ordinary,
  *   main-memory HashMap. When all words are read, the index is committed
  *   to disk.
+ *
+ *   The read methods may be called by many threads at once, as long as
+ *   no thread is inserting or writing the index at the same time. Reads
+ *   are positional (they do not move a shared file pointer), so they run
+ *   in parallel without locking.
+ *
+ *   Reader threads must not be interrupted: an interrupt during a read
+ *   closes the file channels. The channels are then reopened, but the
+ *   interrupted read fails. A failed read throws an UncheckedIOException,
+ *   so that it is never taken for a term that is not in the index.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -41,37 +54,75 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
+    /** The binary doc store file name */
+    public static final String DOCSTORE_FNAME = "docStore";
+
     /** The dictionary hash table on disk can fit this many entries. */
     public static final long TABLESIZE = 611953L;
 
+    /** The decoded postings lists kept in memory take at most this many bytes. */
+    public static final long POSTINGS_CACHE_BYTES = 64L << 20;
+
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
 
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** Channels of the dictionary and data files, for positional reads and writes. */
+    volatile FileChannel dictionaryChannel, dataChannel;
+
+    /** Postings lists up to this many bytes are read through a per-thread direct buffer. */
+    static final int MAX_DIRECT_READ = 1 << 20;
+
+    /** Every thread's buffer for reading dictionary entries. */
+    private static final ThreadLocal<ByteBuffer> entryBuffer =
+        ThreadLocal.withInitial( () -> ByteBuffer.allocateDirect( Entry.BYTESIZE ));
+
+    /** Every thread's buffer for reading postings lists, grown as needed. */
+    private static final ThreadLocal<ByteBuffer> dataBuffer =
+        ThreadLocal.withInitial( () -> ByteBuffer.allocateDirect( 4096 ));
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
-    /** The cache as a main-memory hash map. */
+    /** The terms inserted since the index was last written, as a main-memory hash map. */
     HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** Recently read postings lists, decoded. */
+    final PostingsCache postingsCache = new PostingsCache( POSTINGS_CACHE_BYTES );
+
+    /** Document names and lengths read from disk, or null if not loaded. */
+    DocStore docStore = null;
+
+    /** Called with every term the first time it is inserted. */
+    Consumer<String> newTermListener = null;
+
 
     // ===================================================================
 
     /**
      *   A helper class representing one entry in the dictionary hashtable.
+     *
+     *   Besides the location of the postings list in the data file, an
+     *   entry holds a 64-bit fingerprint of its term and the document and
+     *   collection frequencies of the term, so these can be looked up
+     *   without reading the data file.
      */ 
     public class Entry {
         protected final long ptr;
         protected final long hash;
         protected final int size;
-        public static final int BYTESIZE = 2 * Integer.BYTES + 2 * Long.BYTES;
+        protected final int df;
+        protected final long cf;
+        public static final int BYTESIZE = 2 * Integer.BYTES + 3 * Long.BYTES;
 
-        public Entry(long ptr, long hash, int size){
+        public Entry(long ptr, long hash, int size, int df, long cf){
             this.ptr = ptr;     // pointer to the data file
-            this.hash = hash;   // hash value of entry
+            this.hash = hash;   // fingerprint of the term
             this.size = size;   // size of the string representation
+            this.df = df;       // number of documents containing the term
+            this.cf = cf;       // number of occurrences of the term
         }
 
         public long getPtr() {return ptr;}
@@ -79,6 +130,10 @@ public class PersistentHashedIndex implements Index {
         public long getHash() {return hash;}
 
         public int getSize() {return size;}
+
+        public int getDocumentFrequency() {return df;}
+
+        public long getCollectionFrequency() {return cf;}
     }
 
 
@@ -93,13 +148,26 @@ public class PersistentHashedIndex implements Index {
         try {
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
+            dictionaryChannel = dictionaryFile.getChannel();
+            dataChannel = dataFile.getChannel();
+            long length = dictionaryFile.length();
+            if ( length != 0 && length != TABLESIZE * Entry.BYTESIZE ) {
+                System.err.println( "Warning: the dictionary was written in an older format, please rebuild the index" );
+            }
         } catch ( IOException e ) {
             e.printStackTrace();
         }
 
         try {
-            readDocInfo();
+            docStore = DocStore.read( INDEXDIR + "/" + DOCSTORE_FNAME );
         } catch ( FileNotFoundException e ) {
+            // fall back to an index written in the old text format
+            try {
+                readDocInfo();
+            } catch ( FileNotFoundException ex ) {
+            } catch ( IOException ex ) {
+                ex.printStackTrace();
+            }
         } catch ( IOException e ) {
             e.printStackTrace();
         }
@@ -112,13 +180,14 @@ public class PersistentHashedIndex implements Index {
      */ 
     int writeData( String dataString, long ptr ) {
         try {
-            dataFile.seek( ptr ); 
             byte[] data = dataString.getBytes();
-            dataFile.write( data );
+            ByteBuffer buffer = ByteBuffer.wrap( data );
+            while ( buffer.hasRemaining() ) {
+                dataChannel.write( buffer, ptr + buffer.position() );
+            }
             return data.length;
         } catch ( IOException e ) {
-            e.printStackTrace();
-            return -1;
+            throw new UncheckedIOException( e );
         }
     }
 
@@ -127,15 +196,23 @@ public class PersistentHashedIndex implements Index {
      *  Reads data from the data file
      */ 
     String readData( long ptr, int size ) {
-        try {
-            dataFile.seek( ptr );
+        return withReopen( () -> {
             byte[] data = new byte[size];
-            dataFile.readFully( data );
+            if ( size > MAX_DIRECT_READ ) {
+                readFully( dataChannel, ByteBuffer.wrap( data ), ptr );
+            } else {
+                ByteBuffer buffer = dataBuffer.get();
+                if ( buffer.capacity() < size ) {
+                    buffer = ByteBuffer.allocateDirect( Math.min( MAX_DIRECT_READ, Integer.highestOneBit( size ) << 1 ));
+                    dataBuffer.set( buffer );
+                }
+                buffer.clear().limit( size );
+                readFully( dataChannel, buffer, ptr );
+                buffer.flip();
+                buffer.get( data );
+            }
             return new String(data);
-        } catch ( IOException e ) {
-            e.printStackTrace();
-            return null;
-        }
+        });
     }
 
 
@@ -158,15 +235,16 @@ public class PersistentHashedIndex implements Index {
             buffer.putLong(entry.getPtr());
             buffer.putLong(entry.getHash());
             buffer.putInt(entry.getSize());
+            buffer.putInt(entry.getDocumentFrequency());
+            buffer.putLong(entry.getCollectionFrequency());
 
-
-            // move the file pointer to the specified position
-            dictionaryFile.seek(ptr);
-
-            // write the buffer contents to the file
-            dictionaryFile.write(buffer.array());
+            // write the buffer contents to the file at the specified position
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                dictionaryChannel.write(buffer, ptr + buffer.position());
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -176,27 +254,93 @@ public class PersistentHashedIndex implements Index {
      *  @param ptr The place in the dictionary file where to start reading.
      */
     Entry readEntry( long ptr ) {
-        try {
-            // create a buffer with the size of an Entry
-            ByteBuffer buffer = ByteBuffer.wrap(new byte[Entry.BYTESIZE]);
+        return withReopen( () -> {
+            // this thread's buffer with the size of an Entry
+            ByteBuffer buffer = entryBuffer.get();
+            buffer.clear();
 
-            // move the file pointer to the given position
-            dictionaryFile.seek(ptr);
-
-            // fill the buffer with data from the file
-            dictionaryFile.readFully(buffer.array());
+            // fill the buffer with data from the file at the given position
+            readFully(dictionaryChannel, buffer, ptr);
+            buffer.flip();
 
             // read the entry fields from the buffer
             long ptrData = buffer.getLong();
             long hash = buffer.getLong();
             int size = buffer.getInt();
-
+            int df = buffer.getInt();
+            long cf = buffer.getLong();
 
             // return null if the entry is empty
-            return (ptrData == 0 && size == 0 && hash == 0) ? null : new Entry(ptrData, hash, size);
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            return null;
+            return (ptrData == 0 && size == 0 && hash == 0) ? null : new Entry(ptrData, hash, size, df, cf);
+        });
+    }
+
+
+    /** A read from the index files. */
+    private interface Read<T> {
+        T read() throws IOException;
+    }
+
+
+    /**
+     *  Runs a read. If a channel turns out to be closed (by an interrupt
+     *  of some reading thread), the files are reopened and the read is
+     *  retried, unless the calling thread is the interrupted one.
+     *
+     *  @throws UncheckedIOException if the read fails.
+     */
+    private <T> T withReopen( Read<T> read ) {
+        try {
+            return read.read();
+        } catch ( ClosedChannelException e ) {
+            reopenChannels();
+            if ( Thread.currentThread().isInterrupted() ) {
+                throw new UncheckedIOException( e );
+            }
+            try {
+                return read.read();
+            } catch ( IOException ex ) {
+                throw new UncheckedIOException( ex );
+            }
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+
+    /**
+     *  Reopens the dictionary and data files if their channels have been closed.
+     */
+    private synchronized void reopenChannels() {
+        try {
+            if ( !dictionaryChannel.isOpen() ) {
+                System.err.println( "Warning: reopening the dictionary file, a reading thread was interrupted" );
+                dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
+                dictionaryChannel = dictionaryFile.getChannel();
+            }
+            if ( !dataChannel.isOpen() ) {
+                System.err.println( "Warning: reopening the data file, a reading thread was interrupted" );
+                dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
+                dataChannel = dataFile.getChannel();
+            }
+        } catch ( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+
+    /**
+     *  Fills a buffer with the bytes of a file starting at a given
+     *  position, without moving the file pointer.
+     */
+    static void readFully( FileChannel channel, ByteBuffer buffer, long ptr ) throws IOException {
+        long pos = ptr;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, pos);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            pos += n;
         }
     }
 
@@ -204,29 +348,27 @@ public class PersistentHashedIndex implements Index {
     // ==================================================================
 
     /**
-     *  Writes the document names and document lengths to file.
+     *  Writes the document names and document lengths to the binary
+     *  doc store, and maps the written store back in.
      *
      * @throws IOException  { exception_description }
      */
     private void writeDocInfo() throws IOException {
-        FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" );
-        for ( Map.Entry<Integer,String> entry : docNames.entrySet() ) {
-            Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue() + ";" + docLengths.get(key) + "\n";
-            fout.write( docInfoEntry.getBytes() );
-        }
-        fout.close();
+        String fname = INDEXDIR + "/" + DOCSTORE_FNAME;
+        DocStore.write( fname, docNames, docLengths );
+        docStore = DocStore.read( fname );
     }
 
 
     /**
-     *  Reads the document names and document lengths from file, and
+     *  Reads the document names and document lengths from a text docInfo
+     *  file (the format used before the binary doc store), and
      *  put them in the appropriate data structures.
      *
      * @throws     IOException  { exception_description }
      */
     private void readDocInfo() throws IOException {
-        File file = new File( INDEXDIR + "/docInfo" );
+        File file = new File( INDEXDIR + "/" + DOCINFO_FNAME );
         FileReader freader = new FileReader(file);
         try ( BufferedReader br = new BufferedReader(freader) ) {
             String line;
@@ -251,6 +393,7 @@ public class PersistentHashedIndex implements Index {
 
             // Write the dictionary and the postings list
             collisions = write2DictAndData(collisions);
+            postingsCache.clear();
         } catch ( IOException e ) {
             e.printStackTrace();
         }
@@ -261,6 +404,20 @@ public class PersistentHashedIndex implements Index {
         return Math.abs(key.hashCode()) % TABLESIZE;
     }
 
+    /**
+     *  Returns a 64-bit (FNV-1a) fingerprint of a term, which is stored in
+     *  its dictionary entry to tell it apart from other terms in the
+     *  probe sequence without reading the data file.
+     */
+    static long fingerprint(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
     protected int write2DictAndData(int numOfCollisions) throws IOException {
         // clear the file content
         dictionaryFile.setLength(0);
@@ -271,6 +428,10 @@ public class PersistentHashedIndex implements Index {
         for (Map.Entry<String, PostingsList> entry : index.entrySet()) {
             String key = entry.getKey();
             PostingsList postingsList = entry.getValue();
+            long cf = 0;
+            for (int i = 0; i < postingsList.size(); i++) {
+                cf += postingsList.get(i).offsets.size();
+            }
             long hash = hashFunction(key); // compute the hash value for the key
             long ptrData = free; // starting position for writing
             long ptrDict = hash * Entry.BYTESIZE; // position of the entry in the dictionary file
@@ -289,7 +450,7 @@ public class PersistentHashedIndex implements Index {
             int size = postingsListData.getBytes().length;
 
             // write the new entry to the dictionary file
-            writeEntry(new Entry(ptrData, hash, size), ptrDict);
+            writeEntry(new Entry(ptrData, fingerprint(key), size, postingsList.size(), cf), ptrDict);
 
             // write the actual data and update the free pointer
             free += writeData(postingsListData, ptrData);
@@ -304,36 +465,129 @@ public class PersistentHashedIndex implements Index {
 
     /**
      *  Returns the postings for a specific term, or null
-     *  if the term is not in the index.
+     *  if the term is not in the index. Lists are served from the
+     *  postings cache when possible, and must not be modified;
+     *  Searcher.search hands out copies.
+     *
+     *  @throws UncheckedIOException if the index files cannot be read.
      */
     public PostingsList getPostings( String token ) {
-        long initialHash = hashFunction(token);
-        long pointer = initialHash * Entry.BYTESIZE;
+        PostingsList pl = postingsCache.get(token);
+        if (pl != null) {
+            return pl;
+        }
+        String data = lookup(token);
+        if (data == null) {
+            return null;
+        }
+        pl = PostingsList.decode(data);
+        postingsCache.put(token, pl);
+        return pl;
+    }
 
-        // find the correct entry
-        while (true) {
-            Entry entry = readEntry(pointer);
 
-            // check if entry is valid
-            if (entry == null) {
-                return null;
-            }
+    /**
+     *  Returns the number of documents containing a term, straight from
+     *  its dictionary entry.
+     */
+    public int getDocumentFrequency( String token ) {
+        Entry entry = findEntry(token);
+        return entry == null ? 0 : entry.getDocumentFrequency();
+    }
 
-            // verify hash and check token
-            if (entry.getHash() == initialHash) {
-                String entryData = readData(entry.getPtr(), entry.getSize());
-                if (entryData.startsWith(token)) {
-                    return PostingsList.decode(entryData.substring(token.length() + 1).trim());
-                }
-            }
 
+    /**
+     *  Returns the number of occurrences of a term in all documents,
+     *  straight from its dictionary entry.
+     */
+    public long getCollectionFrequency( String token ) {
+        Entry entry = findEntry(token);
+        return entry == null ? 0 : entry.getCollectionFrequency();
+    }
+
+
+    /**
+     *  Finds the dictionary entry of a term by its fingerprint, or returns
+     *  null if the term is not in the index. Only the dictionary file is
+     *  read.
+     */
+    Entry findEntry( String token ) {
+        long slot = hashFunction(token);
+        long fingerprint = fingerprint(token);
+        while (true) {
+            Entry entry = readEntry(slot * Entry.BYTESIZE);
+            if (entry == null || entry.getHash() == fingerprint) {
+                return entry;
+            }
             // handle collision with linear probing
-            initialHash = (initialHash + 1) % TABLESIZE;
-            pointer = initialHash * Entry.BYTESIZE;
+            slot = (slot + 1) % TABLESIZE;
         }
     }
 
 
+    /**
+     *  Finds a term in the dictionary and returns the string
+     *  representation of its postings list, or null if the term is
+     *  not in the index.
+     */
+    String lookup( String token ) {
+        Entry entry = findEntry(token);
+        if (entry == null) {
+            return null;
+        }
+        String entryData = readData(entry.getPtr(), entry.getSize());
+        String prefix = token + ">";
+        if (entryData == null || !entryData.startsWith(prefix)) {
+            return null;
+        }
+        return entryData.substring(prefix.length()).trim();
+    }
+
+
+    /**
+     *  Returns the name of a document, preferably from the doc store.
+     */
+    public String getDocName( int docID ) {
+        return docStore != null ? docStore.getName( docID ) : docNames.get( docID );
+    }
+
+
+    /**
+     *  Returns the length of a document, preferably from the doc store.
+     */
+    public int getDocLength( int docID ) {
+        if ( docStore != null ) {
+            return docStore.getLength( docID );
+        }
+        Integer len = docLengths.get( docID );
+        return len == null ? -1 : len;
+    }
+
+
+    /**
+     *  Returns the number of documents.
+     */
+    public int getNumberOfDocs() {
+        return docStore != null ? docStore.getNumberOfDocs() : docNames.size();
+    }
+
+
+    /**
+     *  Returns one more than the largest docID.
+     */
+    public int getDocIDLimit() {
+        return docStore != null ? docStore.size() : Index.super.getDocIDLimit();
+    }
+
+
+    /**
+     *  Registers a listener for new terms.
+     */
+    public void setNewTermListener( Consumer<String> listener ) {
+        newTermListener = listener;
+    }
+
+
     /**
      *  Inserts this token in the main-memory hashtable.
      */
@@ -343,6 +597,9 @@ public class PersistentHashedIndex implements Index {
             PostingsList pl = new PostingsList();
             pl.add(new PostingsEntry(docID, 1, offset));
             index.put(token, pl);
+            if (newTermListener != null){
+                newTermListener.accept(token);
+            }
         }
         else {
             PostingsList pl = index.get(token);
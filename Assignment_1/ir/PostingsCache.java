@@ -0,0 +1,157 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *  A least recently used cache of decoded postings lists, bounded by the
+ *  (estimated) number of bytes the lists take on the heap rather than by
+ *  their number, since the postings of a common term can be many times
+ *  larger than those of a rare one.
+ *
+ *  All methods are synchronized, so the cache can be shared by concurrent
+ *  readers. The cached lists are shared too: callers must not modify a
+ *  list they got from the cache.
+ */
+public class PostingsCache {
+
+    /** Estimated heap size of a map entry, its key and the PostingsList object. */
+    static final int LIST_OVERHEAD = 128;
+
+    /** Estimated heap size of a PostingsEntry with an empty offsets list. */
+    static final int ENTRY_OVERHEAD = 80;
+
+    /** Estimated heap size of one (boxed) offset. */
+    static final int OFFSET_SIZE = 20;
+
+    /** The largest number of bytes the cached lists may take. */
+    private final long capacity;
+
+    /** The estimated number of bytes taken by the cached lists. */
+    private long bytes = 0;
+
+    /** Counters of lookups and evictions. */
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /** The cached lists, least recently used first. */
+    private final LinkedHashMap<String,PostingsList> map = new LinkedHashMap<String,PostingsList>( 16, 0.75f, true );
+
+    /** The estimated size of every cached list. */
+    private final HashMap<String,Long> sizes = new HashMap<String,Long>();
+
+
+    /* --------------------------------------------- */
+
+
+    public PostingsCache( long capacity ) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     *  Returns the cached postings of a term, or null if they are not cached.
+     */
+    public synchronized PostingsList get( String term ) {
+        PostingsList pl = map.get( term );
+        if ( pl == null ) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return pl;
+    }
+
+
+    /**
+     *  Caches the postings of a term, evicting the least recently used
+     *  lists until the cache fits within its capacity. Lists larger than
+     *  the whole cache are not cached.
+     */
+    public synchronized void put( String term, PostingsList pl ) {
+        long size = sizeOf( term, pl );
+        if ( size > capacity ) {
+            return;
+        }
+        Long old = sizes.put( term, size );
+        if ( old != null ) {
+            bytes -= old;
+        }
+        map.put( term, pl );
+        bytes += size;
+        Iterator<Map.Entry<String,PostingsList>> it = map.entrySet().iterator();
+        while ( bytes > capacity && it.hasNext() ) {
+            String eldest = it.next().getKey();
+            it.remove();
+            bytes -= sizes.remove( eldest );
+            evictions++;
+        }
+    }
+
+
+    /**
+     *  Removes all cached lists (the counters are kept).
+     */
+    public synchronized void clear() {
+        map.clear();
+        sizes.clear();
+        bytes = 0;
+    }
+
+
+    /** Number of cached lists. */
+    public synchronized int size() {
+        return map.size();
+    }
+
+
+    /** Estimated number of bytes taken by the cached lists. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format( "postings cache: %d lists, %,d of %,d bytes, %d hits, %d misses (%.1f%% hits), %d evictions",
+                              map.size(), bytes, capacity, hits, misses,
+                              lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions );
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Estimates the number of bytes a decoded postings list takes on the heap.
+     */
+    static long sizeOf( String term, PostingsList pl ) {
+        long size = LIST_OVERHEAD + 2L * term.length();
+        for ( int i = 0; i < pl.size(); i++ ) {
+            size += ENTRY_OVERHEAD + (long) OFFSET_SIZE * pl.get( i ).offsets.size();
+        }
+        return size;
+    }
+}
@@ -39,6 +39,13 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
         this.offsets.add(offset);
     }
 
+    /** Copies an entry, with its own list of offsets. */
+    public PostingsEntry(PostingsEntry other){
+        this.docID = other.docID;
+        this.score = other.score;
+        this.offsets = new ArrayList<Integer>(other.offsets);
+    }
+
     /**
      *  PostingsEntries are compared by their score (only relevant
      *  in ranked retrieval).
@@ -39,6 +39,27 @@ public class PostingsList {
         return new PostingsEntry();
     }
 
+    /**
+     *  Finds the entry of a document by binary search, or returns null if
+     *  the document is not in the list. The list must be sorted by docID,
+     *  as the lists of an index are.
+     */
+    public PostingsEntry findById(int docID){
+        int lo = 0, hi = list.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int d = list.get(mid).docID;
+            if (d == docID) {
+                return list.get(mid);
+            } else if (d < docID) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return null;
+    }
+
     public boolean isContainById(int docID){
         for (PostingsEntry entry : list){
             if (entry.docID == docID){
@@ -58,6 +79,16 @@ public class PostingsList {
         }
     }
 
+    /** Returns a copy of this list that shares no entries with it. */
+    public PostingsList deepCopy() {
+        PostingsList result = new PostingsList();
+        result.list.ensureCapacity(list.size());
+        for (PostingsEntry entry : list) {
+            result.list.add(new PostingsEntry(entry));
+        }
+        return result;
+    }
+
 
     /** Insert element in ascending order*/
     public void add(PostingsEntry postingsEntry) {
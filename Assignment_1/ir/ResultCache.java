@@ -0,0 +1,179 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+
+/**
+ *  A least recently used cache of query results, bounded by the number of
+ *  bytes the results take.
+ *
+ *  A result is stored compactly as parallel arrays of docIDs and scores,
+ *  with the offsets of every entry packed into one array, and a new
+ *  PostingsList is built from them on every hit, so callers are free to
+ *  modify what they get. A hit gives the same entries as the search that
+ *  was cached. The cache is safe for concurrent use.
+ */
+public class ResultCache {
+
+    /** Estimated heap size of a cached result apart from its arrays and key. */
+    static final int RESULT_OVERHEAD = 96;
+
+    /** The largest number of bytes the cached results may take. */
+    private final long capacity;
+
+    /** The number of bytes taken by the cached results. */
+    private long bytes = 0;
+
+    /** Counters of lookups and evictions. */
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /** The cached results, least recently used first. */
+    private final LinkedHashMap<String,Result> map = new LinkedHashMap<String,Result>( 16, 0.75f, true );
+
+
+    /**
+     *  The docIDs, scores and offsets of a result, in result order. The
+     *  offsets of entry i are offsets[offsetStart[i] .. offsetStart[i+1]).
+     */
+    static class Result {
+        final int[] docIDs;
+        final double[] scores;
+        final int[] offsetStart;
+        final int[] offsets;
+        final long size;
+
+        Result( String key, PostingsList pl ) {
+            int n = pl.size();
+            docIDs = new int[n];
+            scores = new double[n];
+            offsetStart = new int[n + 1];
+            for ( int i = 0; i < n; i++ ) {
+                docIDs[i] = pl.get( i ).docID;
+                scores[i] = pl.get( i ).score;
+                offsetStart[i + 1] = offsetStart[i] + pl.get( i ).offsets.size();
+            }
+            offsets = new int[offsetStart[n]];
+            for ( int i = 0, k = 0; i < n; i++ ) {
+                for ( int offset : pl.get( i ).offsets ) {
+                    offsets[k++] = offset;
+                }
+            }
+            size = RESULT_OVERHEAD + 2L * key.length() + (long) n * ( Integer.BYTES + Double.BYTES )
+                + (long)( n + 1 + offsets.length ) * Integer.BYTES;
+        }
+
+        PostingsList toPostingsList() {
+            PostingsList pl = new PostingsList();
+            ArrayList<PostingsEntry> list = pl.getList();
+            list.ensureCapacity( docIDs.length );
+            for ( int i = 0; i < docIDs.length; i++ ) {
+                PostingsEntry entry = new PostingsEntry( docIDs[i] );
+                entry.score = scores[i];
+                entry.offsets.ensureCapacity( offsetStart[i + 1] - offsetStart[i] );
+                for ( int k = offsetStart[i]; k < offsetStart[i + 1]; k++ ) {
+                    entry.offsets.add( offsets[k] );
+                }
+                list.add( entry );
+            }
+            return pl;
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    public ResultCache( long capacity ) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     *  Returns the key of a query: its normalized terms and weights
+     *  together with the query, ranking and normalization types. The
+     *  order of the terms only matters for phrase queries.
+     */
+    static String key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+        ArrayList<String> terms = new ArrayList<String>( query.queryterm.size() );
+        for ( Query.QueryTerm qt : query.queryterm ) {
+            terms.add( qt.term.trim().toLowerCase() + "^" + qt.weight );
+        }
+        if ( queryType != QueryType.PHRASE_QUERY ) {
+            Collections.sort( terms );
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append( queryType ).append( '|' ).append( rankingType ).append( '|' ).append( normType );
+        for ( String t : terms ) {
+            sb.append( '|' ).append( t );
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     *  Returns a copy of the cached result for a key, or null if the key
+     *  is not cached.
+     */
+    public PostingsList get( String key ) {
+        Result result;
+        synchronized ( this ) {
+            result = map.get( key );
+            if ( result == null ) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        return result.toPostingsList();
+    }
+
+
+    /**
+     *  Caches the result for a key, evicting the least recently used
+     *  results until the cache fits within its capacity.
+     */
+    public void put( String key, PostingsList pl ) {
+        Result result = new Result( key, pl );
+        if ( result.size > capacity ) {
+            return;
+        }
+        synchronized ( this ) {
+            Result old = map.put( key, result );
+            if ( old != null ) {
+                bytes -= old.size;
+            }
+            bytes += result.size;
+            Iterator<Result> it = map.values().iterator();
+            while ( bytes > capacity && it.hasNext() ) {
+                bytes -= it.next().size;
+                it.remove();
+                evictions++;
+            }
+        }
+    }
+
+
+    /**
+     *  Removes all cached results (the counters are kept).
+     */
+    public synchronized void clear() {
+        map.clear();
+        bytes = 0;
+    }
+
+
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        return String.format( "result cache: %d results, %,d of %,d bytes, %d hits, %d misses (%.1f%% hits), %d evictions",
+                              map.size(), bytes, capacity, hits, misses,
+                              lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions );
+    }
+}
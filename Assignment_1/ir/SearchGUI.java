@@ -12,10 +12,16 @@ import javax.swing.*;
 import javax.swing.text.*;
 import javax.swing.event.*;
 import javax.swing.border.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.io.*;
 
 
@@ -33,6 +39,28 @@ public class SearchGUI extends JFrame {
     /**  The results of a search query. */
     private PostingsList results;
 
+    /**  The snippets of the results, in the same order, or null where a
+     *   snippet has not been computed yet. */
+    private String[] snippetTexts;
+
+    /**  Searches run on this thread, off the event dispatch thread. */
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor( r -> {
+        Thread t = new Thread( r, "search" );
+        t.setDaemon( true );
+        return t;
+    });
+
+    /**  The search in progress, or null. */
+    private Future<?> currentSearch = null;
+
+    /**  Set to cancel the search in progress. */
+    private AtomicBoolean currentCancelled = null;
+
+    /**  Incremented for every new or cancelled search, so that the results
+     *   of a superseded search are never displayed. Only used on the
+     *   event dispatch thread. */
+    private int searchGeneration = 0;
+
     /**  The query type (either intersection, phrase, or ranked). */
     QueryType queryType = QueryType.INTERSECTION_QUERY;
 
@@ -45,6 +73,12 @@ public class SearchGUI extends JFrame {
     /**  Max number of results to display. */
     static final int MAX_RESULTS = 10;
 
+    /**  At most this many characters of a document are shown in the document view. */
+    static final int MAX_PREVIEW_CHARS = 200000;
+
+    /**  Width in pixels of the snippets shown under the results. */
+    static final int SNIPPET_WIDTH = 450;
+
     /** Demarkator between file name and file contents in the file contents text area*/
     private static final String MARKER = "----------------------------------------------------";
 
@@ -74,6 +108,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem tfidfItem = new JRadioButtonMenuItem( "tf-idf" );
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem combinationItem = new JRadioButtonMenuItem( "Combination" );
+    JRadioButtonMenuItem hitsItem = new JRadioButtonMenuItem( "HITS" );
     JRadioButtonMenuItem numberOfWordsItem = new JRadioButtonMenuItem( "Number of words" );
     JRadioButtonMenuItem euclideanLengthItem = new JRadioButtonMenuItem( "Euclidean length" );
     ButtonGroup queries = new ButtonGroup();
@@ -115,6 +150,7 @@ public class SearchGUI extends JFrame {
         rankingMenu.add( tfidfItem );
         rankingMenu.add( pagerankItem );
         rankingMenu.add( combinationItem );
+        rankingMenu.add( hitsItem );
         normalizationMenu.add(numberOfWordsItem);
         normalizationMenu.add(euclideanLengthItem);
         queries.add( intersectionItem );
@@ -123,6 +159,7 @@ public class SearchGUI extends JFrame {
         ranking.add( tfidfItem );
         ranking.add( pagerankItem );
         ranking.add( combinationItem );
+        ranking.add( hitsItem );
         normalization.add(numberOfWordsItem);
         normalization.add(euclideanLengthItem);
         intersectionItem.setSelected( true );
@@ -156,10 +193,10 @@ public class SearchGUI extends JFrame {
         Action search = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 // Empty the results window
-                displayInfoText( " " );
+                displayInfoText( "Searching..." );
                 // Turn the search string into a Query
                 String queryString = queryWindow.getText().toLowerCase().trim();
-                query = new Query( queryString );
+                Query newQuery = new Query( queryString );
                 // Take relevance feedback from the user into account (assignment 3)
                 // Check which documents the user has marked as relevant.
                 if ( box != null ) {
@@ -168,41 +205,9 @@ public class SearchGUI extends JFrame {
                         if ( box[i] != null )
                             relevant[i] = box[i].isSelected();
                     }
-                    query.relevanceFeedback( results, relevant, engine );
-                }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
-                long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
-                    results = engine.searcher.search( query, queryType, rankingType, normType );
-                }
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                // Display the first few results + a button to see all results.
-                //
-                // We don't want to show all results directly since the displaying itself
-                // might take a long time, if there are many results.
-                if ( results != null ) {
-                    displayResults( MAX_RESULTS, elapsedTime/1000.0 );
-                } else {
-                    displayInfoText( "Found 0 matching document(s)" );
-                    
-                    if (engine.speller != null) {
-                        SpellingOptionsDialog dialog = new SpellingOptionsDialog(50);
-                        startTime = System.currentTimeMillis();
-                        String[] corrections = engine.speller.check(query, 10);
-                        elapsedTime = System.currentTimeMillis() - startTime;
-                        System.err.println("It took " + elapsedTime / 1000.0 + "s to check spelling");
-                        if (corrections != null && corrections.length > 0) {
-                            String choice = dialog.show(corrections, corrections[0]);
-                            if (choice != null) {
-                                queryWindow.setText(choice);
-                                queryWindow.grabFocus();
-                                this.actionPerformed(e);
-                            }
-                        }
-                    }
+                    newQuery.relevanceFeedback( results, relevant, engine );
                 }
+                startSearch( newQuery, this, e );
             }
             };
 
@@ -212,6 +217,13 @@ public class SearchGUI extends JFrame {
                             KeyStroke.getKeyStroke( "ENTER" ),
                             JComponent.WHEN_FOCUSED );
 
+        // Editing the query abandons the search in progress.
+        queryWindow.getDocument().addDocumentListener( new DocumentListener() {
+            public void insertUpdate( DocumentEvent e ) { cancelSearch(); }
+            public void removeUpdate( DocumentEvent e ) { cancelSearch(); }
+            public void changedUpdate( DocumentEvent e ) {}
+            });
+
         Action quit = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 System.exit( 0 );
@@ -263,6 +275,13 @@ public class SearchGUI extends JFrame {
             };
         combinationItem.addActionListener( setCombinationRanking );
 
+        Action setHITSRanking = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                rankingType = RankingType.HITS;
+            }
+            };
+        hitsItem.addActionListener( setHITSRanking );
+
         Action setNumberOfWordsNormalization = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 normType = NormalizationType.NUMBER_OF_WORDS;
@@ -282,6 +301,217 @@ public class SearchGUI extends JFrame {
 
    /* ----------------------------------------------- */
 
+    /**
+     *  Runs a search on the search thread, cancelling the search in
+     *  progress (if any), and shows the results on the event dispatch
+     *  thread when it is done. If nothing is found, spelling corrections
+     *  are offered, and a chosen correction is searched for with
+     *  <code>search</code>.
+     */
+    void startSearch( Query newQuery, Action search, ActionEvent e ) {
+        cancelSearch();
+        final QueryType qType = queryType;
+        final RankingType rType = rankingType;
+        final NormalizationType nType = normType;
+        final int generation = ++searchGeneration;
+        final AtomicBoolean cancelled = new AtomicBoolean( false );
+        currentCancelled = cancelled;
+        currentSearch = searchExecutor.submit( () -> {
+            Searcher.setCancelFlag( cancelled );
+            try {
+                // Searches hold the read lock since we don't want to search at the
+                // same time we're indexing new files (this might corrupt the index),
+                // but searches may run side by side.
+                long startTime = System.currentTimeMillis();
+                PostingsList newResults;
+                engine.indexLock.readLock().lock();
+                try {
+                    Searcher.checkCancelled();
+                    newResults = engine.searcher.search( newQuery, qType, rType, nType );
+                } finally {
+                    engine.indexLock.readLock().unlock();
+                }
+                long elapsedTime = System.currentTimeMillis() - startTime;
+                final String[] newSnippets = newResults == null ? null : computeSnippets( newQuery, newResults, null, MAX_RESULTS );
+
+                String[] corrections = null;
+                if ( newResults == null && engine.speller != null ) {
+                    startTime = System.currentTimeMillis();
+                    engine.indexLock.readLock().lock();
+                    try {
+                        Searcher.checkCancelled();
+                        corrections = engine.speller.check( newQuery, 10 );
+                    } finally {
+                        engine.indexLock.readLock().unlock();
+                    }
+                    System.err.println( "It took " + ( System.currentTimeMillis() - startTime ) / 1000.0 + "s to check spelling" );
+                }
+                final String[] suggestions = corrections;
+                SwingUtilities.invokeLater( () -> {
+                    if ( generation != searchGeneration ) {
+                        // a newer search has started
+                        return;
+                    }
+                    query = newQuery;
+                    results = newResults;
+                    snippetTexts = newSnippets;
+                    // Display the first few results + a button to see all results.
+                    //
+                    // We don't want to show all results directly since the displaying itself
+                    // might take a long time, if there are many results.
+                    if ( results != null ) {
+                        displayResults( MAX_RESULTS, elapsedTime/1000.0 );
+                    } else {
+                        displayInfoText( "Found 0 matching document(s)" );
+                        if ( suggestions != null && suggestions.length > 0 ) {
+                            SpellingOptionsDialog dialog = new SpellingOptionsDialog(50);
+                            String choice = dialog.show( suggestions, suggestions[0] );
+                            if ( choice != null ) {
+                                queryWindow.setText( choice );
+                                queryWindow.grabFocus();
+                                search.actionPerformed( e );
+                            }
+                        }
+                    }
+                });
+            } catch ( CancellationException ex ) {
+                // superseded by a newer search
+            } catch ( RuntimeException ex ) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater( () -> {
+                    if ( generation == searchGeneration ) {
+                        displayInfoText( "Search failed: " + ex.getMessage() );
+                    }
+                });
+            } finally {
+                Searcher.setCancelFlag( null );
+            }
+        });
+    }
+
+
+    /**
+     *  Shows the first <code>maxResultsToDisplay</code> results of the
+     *  current search. Snippets not computed yet are read on the search
+     *  thread first, so that the event dispatch thread never waits for
+     *  the disk.
+     */
+    void showMoreResults( int maxResultsToDisplay, double elapsedTime ) {
+        if ( engine.snippets == null ) {
+            displayResults( maxResultsToDisplay, elapsedTime );
+            return;
+        }
+        cancelSearch();
+        final Query q = query;
+        final PostingsList res = results;
+        final String[] known = snippetTexts;
+        final int generation = ++searchGeneration;
+        final AtomicBoolean cancelled = new AtomicBoolean( false );
+        currentCancelled = cancelled;
+        displayInfoText( "Reading snippets..." );
+        currentSearch = searchExecutor.submit( () -> {
+            Searcher.setCancelFlag( cancelled );
+            try {
+                String[] newSnippets = computeSnippets( q, res, known, maxResultsToDisplay );
+                SwingUtilities.invokeLater( () -> {
+                    if ( generation == searchGeneration ) {
+                        snippetTexts = newSnippets;
+                        displayResults( maxResultsToDisplay, elapsedTime );
+                    }
+                });
+            } catch ( CancellationException ex ) {
+                // superseded by a newer search
+            } finally {
+                Searcher.setCancelFlag( null );
+            }
+        });
+    }
+
+
+    /**
+     *  Computes the snippets of the first <code>maxResults</code> results
+     *  that are not in <code>known</code> already. Runs on the search
+     *  thread, under the read lock of the index.
+     *
+     *  @return The snippets, aligned with the results, or null if no
+     *      snippets are stored.
+     */
+    private String[] computeSnippets( Query q, PostingsList res, String[] known, int maxResults ) {
+        if ( engine.snippets == null ) {
+            return null;
+        }
+        String[] texts = known == null ? new String[res.size()] : known.clone();
+        engine.indexLock.readLock().lock();
+        try {
+            for ( int i = 0; i < res.size() && i < maxResults; i++ ) {
+                if ( texts[i] != null ) {
+                    continue;
+                }
+                Searcher.checkCancelled();
+                int docID = res.get( i ).docID;
+                try {
+                    texts[i] = engine.snippets.snippet( engine.index, q, docID, true );
+                } catch ( IOException exc ) {
+                    System.err.println( "Warning: could not read the snippet of document " + docID );
+                }
+                if ( texts[i] == null ) {
+                    texts[i] = "";
+                }
+            }
+        } finally {
+            engine.indexLock.readLock().unlock();
+        }
+        return texts;
+    }
+
+
+    /**
+     *  Cancels the search in progress, if any, by setting its cancel
+     *  flag. The search thread is never interrupted, since that would
+     *  close the channels of the persistent index.
+     */
+    void cancelSearch() {
+        if ( currentSearch != null && !currentSearch.isDone() ) {
+            currentCancelled.set( true );
+            currentSearch.cancel( false );
+            searchGeneration++;
+            displayInfoText( "Search cancelled" );
+        }
+        currentSearch = null;
+        currentCancelled = null;
+    }
+
+
+    /**
+     *  Shows the contents of a document in the document view. The file is
+     *  found by the path stored in the index, and at most
+     *  MAX_PREVIEW_CHARS characters of it are shown.
+     */
+    void showDocument( int docID ) {
+        String path = engine.index.getDocName( docID );
+        StringBuilder contents = new StringBuilder();
+        contents.append( "Displaying contents of " ).append( path == null ? "document " + docID : displayableFileName( path )).append( "\n" ).append( MARKER ).append( "\n" );
+        if ( path == null ) {
+            contents.append( "No file found\n" );
+        } else {
+            try ( BufferedReader br = Files.newBufferedReader( Paths.get( path ), StandardCharsets.UTF_8 )) {
+                String line;
+                while (( line = br.readLine() ) != null ) {
+                    if ( contents.length() > MAX_PREVIEW_CHARS ) {
+                        contents.append( "\n[...]\n" );
+                        break;
+                    }
+                    contents.append( line.trim() ).append( "\n" );
+                }
+            } catch ( IOException exc ) {
+                contents.append( "No file found\n" );
+            }
+        }
+        docTextView.setText( contents.toString() );
+        docTextView.setCaretPosition( 0 );
+    }
+
+
     /**
      *  Clears the results window and writes an info text in it.
      */
@@ -315,7 +545,7 @@ public class SearchGUI extends JFrame {
 //                e.printStackTrace();
 //            }
 
-            String description = i + ". " + displayableFileName( engine.index.docNames.get( results.get(i).docID ));
+            String description = i + ". " + displayableFileName( engine.index.getDocName( results.get(i).docID ));
             if ( queryType == QueryType.RANKED_QUERY ) {
                 description += "   " + String.format( "%.5f", results.get(i).score );
             }
@@ -329,53 +559,10 @@ public class SearchGUI extends JFrame {
             JLabel label = new JLabel(description);
             label.setFont( resultFont );
 
+            final int docID = results.get(i).docID;
             MouseAdapter showDocument = new MouseAdapter() {
                 public void mouseClicked(MouseEvent e) {
-                    String fileName = ((JLabel)e.getSource()).getText().split(" ")[1];
-                    String contents = "Displaying contents of " + fileName + "\n" + MARKER + "\n";
-                    String line;
-
-                    Queue<String> fqueue = new LinkedList<>();
-
-                    for (int j = 0, sz = engine.dirNames.size(); j < sz; j++) {
-                        File curDir = new File(engine.dirNames.get(j));
-                        fqueue.offer(curDir.toString());
-
-                        String[] directories = curDir.list(new FilenameFilter() {
-                            @Override
-                            public boolean accept(File current, String name) {
-                                return new File(current, name).isDirectory();
-                            }
-                        });
-
-                        for (String dir : directories) {
-                            fqueue.offer(new File(curDir.toString(), dir).toString());
-                        }
-                    }
-
-                    boolean foundFile = false;
-                    while(!fqueue.isEmpty()) {
-                        String dirName = fqueue.poll();
-                        File file = new File(dirName, fileName);
-
-                        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                            while ((line = br.readLine()) != null) {
-                                contents += line.trim() + "\n";
-                            }
-                            foundFile = true;
-                            break;
-                        } catch (FileNotFoundException exc) {
-                        } catch (IOException exc) {
-                        } catch (NullPointerException exc) {
-                        }
-                    }
-
-                    if (!foundFile) {
-                        contents += "No file found\n";
-                    }
-
-                    docTextView.setText(contents);
-                    docTextView.setCaretPosition(0);
+                    showDocument(docID);
                 }
             };
             label.addMouseListener(showDocument);
@@ -383,6 +570,18 @@ public class SearchGUI extends JFrame {
             result.add(label);
 
             resultWindow.add( result );
+
+            // Show the query terms in context, if the snippets have been computed.
+            if ( snippetTexts != null ) {
+                String snippet = snippetTexts[i];
+                if ( snippet != null && !snippet.isEmpty() ) {
+                    JLabel snippetLabel = new JLabel( "<html><div style='width:" + SNIPPET_WIDTH + "px'>" + snippet + "</div></html>" );
+                    snippetLabel.setFont( resultFont.deriveFont( Font.PLAIN ));
+                    snippetLabel.setAlignmentX( Component.LEFT_ALIGNMENT );
+                    snippetLabel.setBorder( BorderFactory.createEmptyBorder( 0, 25, 5, 0 ));
+                    resultWindow.add( snippetLabel );
+                }
+            }
         }
         // If there were many results, give the user an option to see all of them.
         if ( i<results.size() ) {
@@ -395,7 +594,7 @@ public class SearchGUI extends JFrame {
             actionButtons.add( display10MoreBut );
             Action display10More = new AbstractAction() {
                 public void actionPerformed( ActionEvent e ) {
-                    displayResults( (int)this.getValue("resCurSize") + 10, elapsedTime );
+                    showMoreResults( (int)this.getValue("resCurSize") + 10, elapsedTime );
                 }
             };
             display10More.putValue("resCurSize", i);
@@ -408,7 +607,7 @@ public class SearchGUI extends JFrame {
             actionButtons.add( displayAllBut );
             Action displayAll = new AbstractAction() {
                 public void actionPerformed( ActionEvent e ) {
-                    displayResults( results.size(), elapsedTime );
+                    showMoreResults( results.size(), elapsedTime );
                 }
             };
             displayAllBut.addActionListener( displayAll );
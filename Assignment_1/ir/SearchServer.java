@@ -0,0 +1,250 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ *  Serves searches over HTTP, with the results as JSON.
+ *
+ *  GET /search?q=&lt;query&gt;[&amp;type=intersection|phrase|ranked][&amp;ranking=tf_idf|pagerank|combination]
+ *             [&amp;norm=number_of_words|euclidean][&amp;k=&lt;n&gt;][&amp;offset=&lt;n&gt;]
+ *
+ *  returns the documents ranked offset+1 .. offset+k of the result. One
+ *  persistent index, loaded from disk, and one Searcher are shared by
+ *  all requests, which are handled concurrently.
+ */
+public class SearchServer {
+
+    /** Default number of results per page. */
+    static final int DEFAULT_K = 10;
+
+    /** Largest number of results per page. */
+    static final int MAX_K = 1000;
+
+    /** The searcher shared by all requests. */
+    final Searcher searcher;
+
+    /** The index searched. */
+    final Index index;
+
+
+    /* --------------------------------------------- */
+
+
+    public SearchServer( Index index, Searcher searcher ) {
+        this.index = index;
+        this.searcher = searcher;
+    }
+
+
+    /**
+     *  Returns the executor of the requests, a pool of <code>numThreads</code>
+     *  platform threads. The threads are reused on purpose: the persistent
+     *  index reads through per-thread direct buffers, which a thread per
+     *  request (e.g. a virtual thread) would allocate anew every time.
+     */
+    static ExecutorService newExecutor( int numThreads ) {
+        return Executors.newFixedThreadPool( numThreads );
+    }
+
+
+    /**
+     *  Handles a request to /search.
+     */
+    void handle( HttpExchange exchange ) throws IOException {
+        try {
+            if ( !"GET".equals( exchange.getRequestMethod() )) {
+                send( exchange, 405, error( "Only GET is supported" ));
+                return;
+            }
+            HashMap<String,String> params = parseQuery( exchange.getRequestURI().getRawQuery() );
+            String q = params.get( "q" );
+            if ( q == null || q.trim().isEmpty() ) {
+                send( exchange, 400, error( "Missing query parameter q" ));
+                return;
+            }
+            QueryType queryType = QueryType.valueOf( params.getOrDefault( "type", "ranked" ).toUpperCase() + "_QUERY" );
+            RankingType rankingType = RankingType.valueOf( params.getOrDefault( "ranking", "tf_idf" ).toUpperCase() );
+            NormalizationType normType = NormalizationType.valueOf( params.getOrDefault( "norm", "number_of_words" ).toUpperCase() );
+            int k = Integer.parseInt( params.getOrDefault( "k", Integer.toString( DEFAULT_K )));
+            int offset = Integer.parseInt( params.getOrDefault( "offset", "0" ));
+            if ( k < 0 || k > MAX_K || offset < 0 ) {
+                send( exchange, 400, error( "k must be in 0.." + MAX_K + " and offset must not be negative" ));
+                return;
+            }
+
+            long start = System.nanoTime();
+            String queryString = q.toLowerCase().trim();
+            PostingsList result = searcher.search( new Query( queryString ), queryType, rankingType, normType );
+            double elapsed = ( System.nanoTime() - start ) / 1e6;
+
+            int total = result == null ? 0 : result.size();
+            StringBuilder sb = new StringBuilder();
+            sb.append( "{\"query\":" ).append( quote( queryString ));
+            sb.append( ",\"total\":" ).append( total );
+            sb.append( ",\"offset\":" ).append( offset );
+            sb.append( ",\"time_ms\":" ).append( String.format( "%.3f", elapsed ));
+            sb.append( ",\"results\":[" );
+            for ( int i = offset; i < total && i < offset + k; i++ ) {
+                PostingsEntry entry = result.get( i );
+                if ( i > offset ) {
+                    sb.append( ',' );
+                }
+                sb.append( "{\"rank\":" ).append( i + 1 );
+                sb.append( ",\"docID\":" ).append( entry.docID );
+                sb.append( ",\"name\":" ).append( quote( index.getDocName( entry.docID )));
+                sb.append( ",\"score\":" ).append( Double.isFinite( entry.score ) ? Double.toString( entry.score ) : "0" );
+                sb.append( '}' );
+            }
+            sb.append( "]}" );
+            send( exchange, 200, sb.toString() );
+        } catch ( IllegalArgumentException e ) {
+            // also catches NumberFormatException
+            send( exchange, 400, error( "Bad parameter: " + e.getMessage() ));
+        } catch ( RuntimeException e ) {
+            e.printStackTrace();
+            send( exchange, 500, error( "Internal error" ));
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    /** Sends a JSON response. */
+    static void send( HttpExchange exchange, int status, String json ) throws IOException {
+        byte[] body = json.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( status, body.length );
+        try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( body );
+        }
+    }
+
+
+    /** Returns a JSON error object. */
+    static String error( String message ) {
+        return "{\"error\":" + quote( message ) + "}";
+    }
+
+
+    /** Decodes the parameters of a URL query string. */
+    static HashMap<String,String> parseQuery( String rawQuery ) {
+        HashMap<String,String> params = new HashMap<String,String>();
+        if ( rawQuery == null ) {
+            return params;
+        }
+        for ( String pair : rawQuery.split( "&" )) {
+            int eq = pair.indexOf( '=' );
+            String key = eq < 0 ? pair : pair.substring( 0, eq );
+            String value = eq < 0 ? "" : pair.substring( eq + 1 );
+            params.put( URLDecoder.decode( key, StandardCharsets.UTF_8 ), URLDecoder.decode( value, StandardCharsets.UTF_8 ));
+        }
+        return params;
+    }
+
+
+    /** Returns a string as a JSON string literal (null as null). */
+    static String quote( String s ) {
+        if ( s == null ) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder( s.length() + 2 );
+        sb.append( '"' );
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt( i );
+            switch ( c ) {
+            case '"':  sb.append( "\\\"" ); break;
+            case '\\': sb.append( "\\\\" ); break;
+            case '\n': sb.append( "\\n" ); break;
+            case '\r': sb.append( "\\r" ); break;
+            case '\t': sb.append( "\\t" ); break;
+            default:
+                if ( c < 0x20 ) {
+                    sb.append( String.format( "\\u%04x", (int) c ));
+                } else {
+                    sb.append( c );
+                }
+            }
+        }
+        return sb.append( '"' ).toString();
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /** Prints usage information. */
+    static void printHelpMessage() {
+        System.err.println( "Usage: SearchServer [options]" );
+        System.err.println( "  Serves the persistent index in " + PersistentHashedIndex.INDEXDIR );
+        System.err.println( "  -port <n> : port to listen on (default: 8080)" );
+        System.err.println( "  -r <file> : PageRank file" );
+        System.err.println( "  -t <n>    : number of threads serving requests (default: twice the number of cores)" );
+    }
+
+
+    public static void main( String[] args ) {
+        int port = 8080;
+        int numThreads = Runtime.getRuntime().availableProcessors() * 2;
+        String rankFile = null;
+        for ( int i = 0; i < args.length; i += 2 ) {
+            if ( i + 1 == args.length ) {
+                printHelpMessage();
+                return;
+            }
+            if ( "-port".equals( args[i] )) {
+                port = Integer.parseInt( args[i + 1] );
+            } else if ( "-r".equals( args[i] )) {
+                rankFile = args[i + 1];
+            } else if ( "-t".equals( args[i] )) {
+                numThreads = Integer.parseInt( args[i + 1] );
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                printHelpMessage();
+                return;
+            }
+        }
+        if ( numThreads < 1 ) {
+            System.err.println( "The number of threads must be at least 1" );
+            printHelpMessage();
+            return;
+        }
+
+        PersistentHashedIndex index = new PersistentHashedIndex();
+        KGramIndex kgIndex = new KGramIndex( 2 );
+        try {
+            kgIndex.readIndex( PersistentHashedIndex.INDEXDIR + "/" + KGramIndex.KGRAMS_FNAME );
+        } catch ( IOException e ) {
+            System.err.println( "Warning: no k-gram index on disk, wildcards are disabled" );
+            kgIndex = null;
+        }
+        Searcher searcher = new Searcher( index, kgIndex );
+        if ( rankFile != null ) {
+            searcher.readPageRanks( rankFile );
+        }
+        SearchServer server = new SearchServer( index, searcher );
+        try {
+            HttpServer http = HttpServer.create( new InetSocketAddress( port ), 0 );
+            http.createContext( "/search", server::handle );
+            http.setExecutor( newExecutor( numThreads ));
+            http.start();
+            System.err.println( "Serving " + index.getNumberOfDocs() + " documents on http://localhost:" + port + "/search" );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -7,12 +7,30 @@
 
 package ir;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 /**
  *  Searches an index for results of a query.
+ *
+ *  A Searcher may be used by many threads at once: every search works on
+ *  its own data, and the shared caches are synchronized.
+ *
+ *  Searches can be cancelled through a flag registered for the searching
+ *  thread with <code>setCancelFlag</code>: the merge loops check it and
+ *  give up with a CancellationException. Searching threads must not be
+ *  interrupted, since an interrupt closes the channels the persistent
+ *  index reads from.
  */
 public class Searcher {
 
@@ -21,6 +39,40 @@ public class Searcher {
 
     /** The k-gram index to be searched by this Searcher */
     KGramIndex kgIndex;
+
+    /** Weight of the PageRank in the combined score (the tf-idf gets the rest). */
+    static final double PAGERANK_WEIGHT = 0.3;
+
+    /** Maximal number of terms a wildcard query term is expanded to. */
+    static final int MAX_WILDCARD_EXPANSIONS = 1000;
+
+    /** Number of wildcard expansions kept in the cache. */
+    static final int WILDCARD_CACHE_SIZE = 256;
+
+    /** LRU cache of wildcard expansions, keyed by the wildcard pattern. */
+    private final LinkedHashMap<String,String[]> wildcardCache = new LinkedHashMap<String,String[]>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String,String[]> eldest) {
+            return size() > WILDCARD_CACHE_SIZE;
+        }
+    };
+
+    /** The merge and tf-idf loops check for cancellation once per this many (+1) steps. */
+    static final int CANCEL_CHECK_INTERVAL = 1023;
+
+    /** Query results take at most this many bytes in the result cache. */
+    static final long RESULT_CACHE_BYTES = 16L << 20;
+
+    /** Cache of recent query results. */
+    final ResultCache resultCache = new ResultCache(RESULT_CACHE_BYTES);
+
+    /** PageRank of every page, keyed by file name, or null if no rank file was read. */
+    HashMap<String,Double> pageRanks = null;
+
+    /** PageRank of every document, indexed by docID (built from <code>pageRanks</code>). */
+    double[] docRanks = null;
+
+    /** Ranks the results of HITS queries, or null if no link graph was read. */
+    HITSRanker hitsRanker = null;
     
     /** Constructor */
     public Searcher( Index index, KGramIndex kgIndex ) {
@@ -28,15 +80,92 @@ public class Searcher {
         this.kgIndex = kgIndex;
     }
 
+    /**
+     *  Reads the PageRanks computed by <code>PageRank</code>.
+     */
+    public void readPageRanks( String rankFile ) {
+        try {
+            HashMap<String,Double> ranks = PageRank.readRanks( rankFile );
+            synchronized ( this ) {
+                pageRanks = ranks;
+                docRanks = null;
+            }
+            resultCache.clear();
+        } catch ( IOException e ) {
+            System.err.println( "Warning: could not read the rank file " + rankFile );
+        }
+    }
+
+    /**
+     *  Reads the link graph used to rank results with HITS.
+     */
+    public void readLinkGraph( String linksFile, String titlesFile ) {
+        HITSRanker ranker = new HITSRanker( linksFile, titlesFile, index );
+        if ( ranker.graph == null ) {
+            System.err.println( "Warning: HITS ranking falls back to tf-idf" );
+            return;
+        }
+        synchronized ( this ) {
+            hitsRanker = ranker;
+        }
+        resultCache.clear();
+    }
+
+    /**
+     *  Forgets everything computed from the index: cached results, wildcard
+     *  expansions, the PageRank of every docID and the HITS rankings.
+     *  Must be called when the index has changed.
+     */
+    public void clearCache() {
+        resultCache.clear();
+        synchronized (wildcardCache) {
+            wildcardCache.clear();
+        }
+        HITSRanker ranker;
+        synchronized (this) {
+            docRanks = null;
+            ranker = hitsRanker;
+        }
+        if (ranker != null){
+            ranker.clearCache();
+        }
+    }
+
     /**
      *  Searches the index for postings matching the query.
+     *  Repeated queries are answered from the result cache.
+     *
+     *  The result may be modified by the caller: it never shares entries
+     *  with the index, its postings cache or the result cache.
      *  @return A postings list representing the result of the query.
      */
     public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+        String key = ResultCache.key(query, queryType, rankingType, normType);
+        PostingsList result = resultCache.get(key);
+        if (result == null) {
+            result = evaluate(query, queryType, rankingType, normType);
+            if (result != null) {
+                resultCache.put(key, result);
+                // a one-term query gives the index's own list
+                result = result.deepCopy();
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Computes the result of a query.
+     */
+    PostingsList evaluate( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+
+        // ranked retrieval, for any number of query terms
+        if (queryType.equals(QueryType.RANKED_QUERY)){
+            return rankedSearch(query, rankingType, normType);
+        }
 
         // task 1.2, single word search
         if(query.queryterm.size() == 1){
-            return this.index.getPostings(query.queryterm.get(0).term);
+            return getTermPostings(query.queryterm.get(0).term);
         }
 
         // task 1.3, intersect search
@@ -46,7 +175,8 @@ public class Searcher {
 
             // traverse the queryterms
             for (int i = 0; i < query.queryterm.size(); i++){
-                PostingsList postingsList = index.getPostings(query.queryterm.get(i).term);
+                checkCancelled();
+                PostingsList postingsList = getTermPostings(query.queryterm.get(i).term);
 
                 // return an empty list if the posting list is empty,
                 if (postingsList == null){
@@ -73,7 +203,8 @@ public class Searcher {
 
             // traverse the queryterms
             for (int i = 0; i < query.queryterm.size(); i++){
-                PostingsList postingsList = index.getPostings(query.queryterm.get(i).term);
+                checkCancelled();
+                PostingsList postingsList = getTermPostings(query.queryterm.get(i).term);
 
                 // return an empty list if the posting list is empty,
                 if (postingsList == null){
@@ -96,6 +227,303 @@ public class Searcher {
         return null;
     }
 
+    /**
+     *  Returns the postings of a query term. A term containing '*' is a
+     *  wildcard, and gets the union of the postings of all matching terms.
+     */
+    PostingsList getTermPostings( String term ) {
+        if (kgIndex == null || term.indexOf('*') < 0){
+            return index.getPostings(term);
+        }
+        String[] terms = expandWildcard(term);
+        ArrayList<PostingsList> lists = new ArrayList<PostingsList>(terms.length);
+        for (String t : terms){
+            PostingsList postingsList = index.getPostings(t);
+            if (postingsList != null && postingsList.size() > 0){
+                lists.add(postingsList);
+            }
+        }
+        if (lists.isEmpty()){
+            return null;
+        }
+        return lists.size() == 1 ? lists.get(0) : union(lists);
+    }
+
+    /**
+     *  Returns the terms of the vocabulary matching a wildcard pattern,
+     *  at most MAX_WILDCARD_EXPANSIONS of them.
+     *
+     *  The candidates are the terms sharing all k-grams that can be formed
+     *  from the pattern (with the ^ and $ boundary markers) without spanning
+     *  a '*'. Since k-grams do not capture their order, the candidates are
+     *  then matched against the pattern itself.
+     */
+    String[] expandWildcard( String pattern ) {
+        synchronized (wildcardCache){
+            String[] cached = wildcardCache.get(pattern);
+            if (cached != null){
+                return cached;
+            }
+        }
+
+        int k = kgIndex.getK();
+        ArrayList<int[]> postings = new ArrayList<int[]>();
+        boolean missing = false;
+        for (String piece : ("^" + pattern + "$").split("\\*")){
+            for (int i = 0; i + k <= piece.length(); i++){
+                int[] p = kgIndex.getPostings(piece.substring(i, i + k));
+                if (p == null){
+                    missing = true;
+                } else {
+                    postings.add(p);
+                }
+            }
+        }
+
+        String[] terms;
+        if (missing || postings.isEmpty()){
+            // some k-gram of the pattern is in no term, or the pattern is too
+            // short to contain any k-gram
+            terms = new String[0];
+        } else {
+            int[] candidates = kgIndex.intersect(postings);
+            StringBuilder regex = new StringBuilder();
+            String[] parts = pattern.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++){
+                if (i > 0){
+                    regex.append(".*");
+                }
+                if (!parts[i].isEmpty()){
+                    regex.append(Pattern.quote(parts[i]));
+                }
+            }
+            Pattern p = Pattern.compile(regex.toString());
+            ArrayList<String> matches = new ArrayList<String>();
+            for (int i = 0; i < candidates.length && matches.size() < MAX_WILDCARD_EXPANSIONS; i++){
+                String term = kgIndex.getTermByID(candidates[i]);
+                if (p.matcher(term).matches()){
+                    matches.add(term);
+                }
+            }
+            terms = matches.toArray(new String[0]);
+        }
+
+        synchronized (wildcardCache){
+            wildcardCache.put(pattern, terms);
+        }
+        return terms;
+    }
+
+    /**
+     *  Merges several postings lists into one with a k-way merge over a heap
+     *  of list cursors, ordered by their current docID. Entries with the
+     *  same docID are combined, with their offsets merged in order.
+     */
+    PostingsList union( List<PostingsList> lists ){
+        // a cursor is {list number, position in the list}
+        PriorityQueue<int[]> heap = new PriorityQueue<int[]>(lists.size(),
+                (a, b) -> Integer.compare(lists.get(a[0]).get(a[1]).docID, lists.get(b[0]).get(b[1]).docID));
+        for (int i = 0; i < lists.size(); i++){
+            heap.add(new int[] { i, 0 });
+        }
+
+        PostingsList result = new PostingsList();
+        ArrayList<PostingsEntry> list = result.getList();
+        ArrayList<PostingsEntry> sameDoc = new ArrayList<PostingsEntry>();
+        AtomicBoolean cancelled = currentCancelFlag();
+        int steps = 0;
+        while (!heap.isEmpty()){
+            if ((++steps & CANCEL_CHECK_INTERVAL) == 0){
+                checkCancelled(cancelled);
+            }
+            int docID = lists.get(heap.peek()[0]).get(heap.peek()[1]).docID;
+            sameDoc.clear();
+            while (!heap.isEmpty() && lists.get(heap.peek()[0]).get(heap.peek()[1]).docID == docID){
+                int[] cursor = heap.poll();
+                PostingsList pl = lists.get(cursor[0]);
+                sameDoc.add(pl.get(cursor[1]));
+                if (++cursor[1] < pl.size()){
+                    heap.add(cursor);
+                }
+            }
+
+            PostingsEntry entry = new PostingsEntry(docID);
+            for (PostingsEntry e : sameDoc){
+                entry.offsets.addAll(e.offsets);
+            }
+            if (sameDoc.size() > 1){
+                Collections.sort(entry.offsets);
+            }
+            list.add(entry);
+        }
+        return result;
+    }
+
+    /**
+     *  Ranks all documents containing at least one of the query terms.
+     *
+     *  The tf-idf scores are accumulated term by term in a dense array
+     *  indexed by docID. Euclidean document lengths are not stored in the
+     *  index, so both normalization types divide by the number of words.
+     *  With HITS ranking, the matching documents are the root set, and the
+     *  documents of the base set are ranked by their hub and authority
+     *  scores.
+     */
+    PostingsList rankedSearch( Query query, RankingType rankingType, NormalizationType normType ) {
+        int n = index.getDocIDLimit();
+        int numDocs = index.getNumberOfDocs();
+        double[] tfidf = new double[n];
+        boolean[] seen = new boolean[n];
+        int[] matched = new int[n];
+        int numMatched = 0;
+        AtomicBoolean cancelled = currentCancelFlag();
+
+        for (int i = 0; i < query.queryterm.size(); i++){
+            Query.QueryTerm qt = query.queryterm.get(i);
+            PostingsList postingsList = getTermPostings(qt.term);
+            if (postingsList == null || postingsList.size() == 0){
+                continue;
+            }
+            double idf = Math.log((double) numDocs / postingsList.size());
+            for (int j = 0; j < postingsList.size(); j++){
+                if ((j & CANCEL_CHECK_INTERVAL) == 0){
+                    checkCancelled(cancelled);
+                }
+                PostingsEntry entry = postingsList.get(j);
+                int docID = entry.docID;
+                if (docID >= n){
+                    continue;
+                }
+                if (!seen[docID]){
+                    seen[docID] = true;
+                    matched[numMatched++] = docID;
+                }
+                tfidf[docID] += qt.weight * entry.offsets.size() * idf;
+            }
+        }
+
+        double maxTfidf = 0, maxRank = 0;
+        boolean usePageRank = rankingType == RankingType.PAGERANK || rankingType == RankingType.COMBINATION;
+        double[] ranks = usePageRank ? getDocRanks() : null;
+        for (int i = 0; i < numMatched; i++){
+            int docID = matched[i];
+            int len = index.getDocLength(docID);
+            if (len > 0){
+                tfidf[docID] /= len;
+            }
+            maxTfidf = Math.max(maxTfidf, tfidf[docID]);
+            if (ranks != null){
+                maxRank = Math.max(maxRank, ranks[docID]);
+            }
+        }
+
+        PostingsList result = new PostingsList();
+        ArrayList<PostingsEntry> list = result.getList();
+        list.ensureCapacity(numMatched);
+        for (int i = 0; i < numMatched; i++){
+            int docID = matched[i];
+            PostingsEntry entry = new PostingsEntry(docID);
+            if (!usePageRank || ranks == null){
+                entry.score = tfidf[docID];
+            } else if (rankingType == RankingType.PAGERANK){
+                entry.score = ranks[docID];
+            } else {
+                // scale both scores to [0,1] before combining them
+                double t = maxTfidf > 0 ? tfidf[docID] / maxTfidf : 0;
+                double r = maxRank > 0 ? ranks[docID] / maxRank : 0;
+                entry.score = (1 - PAGERANK_WEIGHT) * t + PAGERANK_WEIGHT * r;
+            }
+            list.add(entry);
+        }
+        Collections.sort(list);
+
+        HITSRanker ranker;
+        synchronized (this) {
+            ranker = hitsRanker;
+        }
+        if (rankingType == RankingType.HITS && ranker != null){
+            // the documents matching the query are the root set
+            return ranker.rank(result);
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the PageRank of every document indexed by docID, or null if
+     *  no rank file has been read. Documents are matched to pages by file name.
+     */
+    synchronized double[] getDocRanks() {
+        if (pageRanks == null){
+            return null;
+        }
+        int n = index.getDocIDLimit();
+        if (docRanks == null || docRanks.length != n){
+            double[] ranks = new double[n];
+            for (int docID = 0; docID < n; docID++){
+                String name = index.getDocName(docID);
+                if (name != null){
+                    Double rank = pageRanks.get(fileName(name));
+                    ranks[docID] = rank == null ? 0 : rank;
+                }
+            }
+            docRanks = ranks;
+        }
+        return docRanks;
+    }
+
+    /** The cancel flag of the search running on each thread, if any. */
+    private static final ThreadLocal<AtomicBoolean> cancelFlag = new ThreadLocal<AtomicBoolean>();
+
+    /**
+     *  Registers the flag that cancels the searches of the calling thread
+     *  when it is set, or removes it if <code>flag</code> is null.
+     */
+    public static void setCancelFlag(AtomicBoolean flag){
+        if (flag == null){
+            cancelFlag.remove();
+        } else {
+            cancelFlag.set(flag);
+        }
+    }
+
+    /**
+     *  Returns the cancel flag of the calling thread, or null if it has
+     *  none. Loops fetch it once and pass it to <code>checkCancelled</code>.
+     */
+    static AtomicBoolean currentCancelFlag(){
+        return cancelFlag.get();
+    }
+
+    /**
+     *  Gives up the current search if the cancel flag of the searching
+     *  thread has been set.
+     */
+    static void checkCancelled(){
+        checkCancelled(cancelFlag.get());
+    }
+
+    /**
+     *  Gives up the current search if <code>flag</code> (which may be
+     *  null) has been set.
+     */
+    static void checkCancelled(AtomicBoolean flag){
+        if (flag != null && flag.get()){
+            throw new CancellationException("search cancelled");
+        }
+    }
+
+    /**
+     *  Returns the file name at the end of a path.
+     */
+    static String fileName( String path ) {
+        String result = "";
+        StringTokenizer tok = new StringTokenizer( path, "\\/" );
+        while ( tok.hasMoreTokens() ) {
+            result = tok.nextToken();
+        }
+        return result;
+    }
+
 //    public List<PostingsList> extractPostingLists(Query query){
 //        List<PostingsList> postingsLists = new ArrayList<>();
 //        if (query.queryterm.size() > 1) {
@@ -157,7 +585,12 @@ public class Searcher {
         PostingsList result = new PostingsList();
 
         int i = 0, j = 0;
+        AtomicBoolean cancelled = currentCancelFlag();
+        int steps = 0;
         while (i < pl1.size() && j < pl2.size()){
+            if ((++steps & CANCEL_CHECK_INTERVAL) == 0){
+                checkCancelled(cancelled);
+            }
             int doc_i = pl1.get(i).docID, doc_j = pl2.get(j).docID;
             if (doc_i == doc_j){
                 result.add(new PostingsEntry(doc_i));
@@ -180,7 +613,12 @@ public class Searcher {
         PostingsList result = new PostingsList();
 
         int i = 0, j =0;
+        AtomicBoolean cancelled = currentCancelFlag();
+        int steps = 0;
         while (i < pl1.size() && j < pl2.size()){
+            if ((++steps & CANCEL_CHECK_INTERVAL) == 0){
+                checkCancelled(cancelled);
+            }
 
             if (pl1.get(i).docID == pl2.get(j).docID){
 //                int m = 0, n = 0;
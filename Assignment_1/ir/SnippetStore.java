@@ -0,0 +1,405 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+/*
+ *   A store of the byte offset of every token in the original (UTF-8)
+ *   files, for showing query terms in context (snippets) without
+ *   tokenizing the files again.
+ *
+ *   The store is kept in a single binary file with the layout
+ *
+ *     MAGIC (int) | numDocs (int) | directoryPtr (long)
+ *     for every document:
+ *       token offsets (numTokens ints, the byte offset of every token in its file)
+ *     directory   (numDocs times { dataPtr (long), numTokens (int), numBytes (int) })
+ *
+ *   The directory is read into memory when the store is opened. A
+ *   snippet then takes two positional reads: one in the store for the
+ *   offsets of the tokens around the best group of query term
+ *   occurrences, and one in the original file for the text between them.
+ *   The files must not change after indexing, and the offsets are only
+ *   exact for files that are valid UTF-8.
+ */
+public class SnippetStore {
+
+    /** Identifies a snippet store file. */
+    public static final int MAGIC = 0x534e5032;
+
+    /** Identifies a snippet store file of the older format, which kept the text. */
+    static final int OLD_MAGIC = 0x534e5031;
+
+    /** The snippet store file name (in the index directory). */
+    public static final String SNIPPETS_FNAME = "snippets";
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES;
+
+    /** Size of a directory entry in bytes. */
+    static final int DIRECTORY_ENTRY_SIZE = Long.BYTES + 2 * Integer.BYTES;
+
+    /** Number of tokens in a snippet. */
+    static final int SNIPPET_TOKENS = 24;
+
+    /** Number of tokens shown before the first query term occurrence. */
+    static final int CONTEXT_TOKENS = 5;
+
+    /** Largest number of bytes of text read for a snippet. */
+    static final int MAX_SNIPPET_BYTES = 1200;
+
+    /** The store file. */
+    private final FileChannel channel;
+
+    /** Where the data of every document starts, indexed by docID. */
+    private final long[] dataPtr;
+
+    /** Number of tokens and bytes of every document, indexed by docID. */
+    private final int[] numTokens, numBytes;
+
+
+    /* ----------------------------------------------- */
+
+
+    private SnippetStore( FileChannel channel, long[] dataPtr, int[] numTokens, int[] numBytes ) {
+        this.channel = channel;
+        this.dataPtr = dataPtr;
+        this.numTokens = numTokens;
+        this.numBytes = numBytes;
+    }
+
+
+    /** Number of docIDs in the store. */
+    public int size() {
+        return dataPtr.length;
+    }
+
+
+    /**
+     *  Opens a snippet store file and reads its directory.
+     *
+     *  @throws FileNotFoundException if there is no snippet store file.
+     */
+    public static SnippetStore read( String fname ) throws IOException {
+        FileChannel channel = new RandomAccessFile( fname, "r" ).getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+            PersistentHashedIndex.readFully( channel, header, 0 );
+            header.flip();
+            int magic = header.getInt();
+            if ( magic == OLD_MAGIC ) {
+                throw new IOException( fname + " was written in an older format, please index again with -sn" );
+            } else if ( magic != MAGIC ) {
+                throw new IOException( fname + " is not a snippet store file" );
+            }
+            int numDocs = header.getInt();
+            long directoryPtr = header.getLong();
+
+            ByteBuffer directory = ByteBuffer.allocate( numDocs * DIRECTORY_ENTRY_SIZE );
+            PersistentHashedIndex.readFully( channel, directory, directoryPtr );
+            directory.flip();
+            long[] dataPtr = new long[numDocs];
+            int[] numTokens = new int[numDocs];
+            int[] numBytes = new int[numDocs];
+            for ( int docID = 0; docID < numDocs; docID++ ) {
+                dataPtr[docID] = directory.getLong();
+                numTokens[docID] = directory.getInt();
+                numBytes[docID] = directory.getInt();
+            }
+            return new SnippetStore( channel, dataPtr, numTokens, numBytes );
+        } catch ( IOException e ) {
+            channel.close();
+            throw e;
+        }
+    }
+
+
+    /**
+     *  Returns a snippet of a document: about SNIPPET_TOKENS tokens of its
+     *  text around the densest group of occurrences of the query terms,
+     *  which are highlighted. The positions of the query terms are taken
+     *  from their postings lists, and the text from the original file. If
+     *  <code>html</code> is true, the snippet is HTML-escaped and the
+     *  terms are set in bold, otherwise they are put in [brackets].
+     *
+     *  @return The snippet, or null if the document is not in the store.
+     */
+    public String snippet( Index index, Query query, int docID, boolean html ) throws IOException {
+        if ( docID < 0 || docID >= dataPtr.length || dataPtr[docID] < 0 ) {
+            return null;
+        }
+        String path = index.getDocName( docID );
+        if ( path == null ) {
+            return null;
+        }
+        int n = numTokens[docID];
+
+        // the positions of all query term occurrences, as {position, term length}
+        ArrayList<int[]> hits = new ArrayList<int[]>();
+        for ( Query.QueryTerm qt : query.queryterm ) {
+            PostingsList pl = qt.term.indexOf( '*' ) < 0 ? index.getPostings( qt.term ) : null;
+            PostingsEntry entry = pl == null ? null : pl.findById( docID );
+            if ( entry != null ) {
+                for ( int pos : entry.offsets ) {
+                    if ( pos < n ) {
+                        hits.add( new int[] { pos, qt.term.length() } );
+                    }
+                }
+            }
+        }
+        Collections.sort( hits, ( a, b ) -> Integer.compare( a[0], b[0] ));
+
+        // the window of SNIPPET_TOKENS tokens containing the most occurrences
+        int best = 0, bestCount = 0;
+        for ( int i = 0, j = 0; i < hits.size(); i++ ) {
+            while ( j < hits.size() && hits.get( j )[0] < hits.get( i )[0] + SNIPPET_TOKENS - CONTEXT_TOKENS ) {
+                j++;
+            }
+            if ( j - i > bestCount ) {
+                bestCount = j - i;
+                best = i;
+            }
+        }
+        int first = hits.isEmpty() ? 0 : Math.max( 0, hits.get( best )[0] - CONTEXT_TOKENS );
+        int end = Math.min( n, first + SNIPPET_TOKENS );
+        if ( first >= end ) {
+            return "";
+        }
+
+        // the offsets of tokens first..end (the start of the token after the window ends it)
+        int numOffsets = Math.min( n, end + 1 ) - first;
+        ByteBuffer buffer = ByteBuffer.allocate( numOffsets * Integer.BYTES );
+        PersistentHashedIndex.readFully( channel, buffer, dataPtr[docID] + (long) first * Integer.BYTES );
+        buffer.flip();
+        int[] offsets = new int[numOffsets];
+        buffer.asIntBuffer().get( offsets );
+        int byteStart = offsets[0];
+        int byteEnd = end < n ? offsets[end - first] : numBytes[docID];
+        boolean truncated = byteEnd - byteStart > MAX_SNIPPET_BYTES;
+        if ( truncated ) {
+            byteEnd = byteStart + MAX_SNIPPET_BYTES;
+        }
+
+        byte[] text = new byte[Math.max( 0, byteEnd - byteStart )];
+        try ( FileChannel file = FileChannel.open( Paths.get( path ), StandardOpenOption.READ )) {
+            PersistentHashedIndex.readFully( file, ByteBuffer.wrap( text ), byteStart );
+        }
+        int length = text.length;
+        if ( truncated ) {
+            // do not end in the middle of a UTF-8 sequence
+            while ( length > 0 && ( text[length - 1] & 0xc0 ) == 0x80 ) {
+                length--;
+            }
+            if ( length > 0 && ( text[length - 1] & 0xc0 ) == 0xc0 ) {
+                length--;
+            }
+        }
+
+        // copy the text, highlighting the occurrences inside the window
+        StringBuilder sb = new StringBuilder();
+        if ( first > 0 ) {
+            sb.append( "... " );
+        }
+        int c = 0;
+        for ( int[] hit : hits ) {
+            if ( hit[0] < first || hit[0] >= end ) {
+                continue;
+            }
+            int from = offsets[hit[0] - first] - byteStart;
+            int to = hit[0] + 1 - first < numOffsets ? offsets[hit[0] + 1 - first] - byteStart : length;
+            to = Math.min( to, length );
+            if ( from < c || from >= to ) {
+                continue;
+            }
+            append( sb, decode( text, c, from ), html );
+            // the token is spelled with as many characters as the term
+            String token = decode( text, from, to );
+            int termEnd = Math.min( hit[1], token.length() );
+            sb.append( html ? "<b>" : "[" );
+            append( sb, token.substring( 0, termEnd ), html );
+            sb.append( html ? "</b>" : "]" );
+            append( sb, token.substring( termEnd ), html );
+            c = to;
+        }
+        append( sb, decode( text, c, length ), html );
+        if ( end < n || truncated ) {
+            sb.append( sb.length() > 0 && sb.charAt( sb.length() - 1 ) == ' ' ? "..." : " ..." );
+        }
+        return sb.toString().trim();
+    }
+
+
+    /** Decodes the UTF-8 bytes text[from..to). */
+    private static String decode( byte[] text, int from, int to ) {
+        return from >= to ? "" : new String( text, from, to - from, StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     *  Appends text with every run of whitespace made a single space,
+     *  escaping it for HTML if asked to.
+     */
+    private static void append( StringBuilder sb, String text, boolean html ) {
+        for ( int i = 0; i < text.length(); i++ ) {
+            char c = text.charAt( i );
+            if ( Character.isWhitespace( c )) {
+                if ( sb.length() > 0 && sb.charAt( sb.length() - 1 ) != ' ' ) {
+                    sb.append( ' ' );
+                }
+            } else if ( html && c == '<' ) {
+                sb.append( "&lt;" );
+            } else if ( html && c == '>' ) {
+                sb.append( "&gt;" );
+            } else if ( html && c == '&' ) {
+                sb.append( "&amp;" );
+            } else {
+                sb.append( c );
+            }
+        }
+    }
+
+
+    /** Closes the store file. */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Writes a snippet store file, one document at a time, while the
+     *  documents are indexed.
+     */
+    public static class Writer implements Closeable {
+
+        private final String fname;
+        private final DataOutputStream out;
+
+        /** The number of bytes written so far. */
+        private long ptr = HEADER_SIZE;
+
+        /** The directory, indexed by docID (dataPtr -1 for docIDs without a document). */
+        private long[] dataPtr = new long[1024];
+        private int[] numTokens = new int[1024];
+        private int[] numBytes = new int[1024];
+        private int numDocs = 0;
+
+        public Writer( String fname ) throws IOException {
+            this.fname = fname;
+            out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fname ), 1 << 16 ));
+            // the header is written when the file is closed
+            out.write( new byte[HEADER_SIZE] );
+        }
+
+        /**
+         *  Adds the token offsets of a document. The character offsets of
+         *  its first <code>n</code> tokens (in increasing order) are turned
+         *  into byte offsets in its UTF-8 file, using the text of the
+         *  document; only the offsets are stored.
+         */
+        public synchronized void add( int docID, CharSequence text, int[] offsets, int n ) throws IOException {
+            if ( docID >= dataPtr.length ) {
+                int capacity = Math.max( docID + 1, dataPtr.length * 2 );
+                dataPtr = Arrays.copyOf( dataPtr, capacity );
+                numTokens = Arrays.copyOf( numTokens, capacity );
+                numBytes = Arrays.copyOf( numBytes, capacity );
+            }
+            for ( int i = numDocs; i < docID; i++ ) {
+                dataPtr[i] = -1;
+            }
+            numDocs = Math.max( numDocs, docID + 1 );
+            dataPtr[docID] = ptr;
+            numTokens[docID] = n;
+            int c = 0, bytes = 0;
+            for ( int i = 0; i < n; i++ ) {
+                for ( ; c < offsets[i]; c++ ) {
+                    bytes += utf8Length( text.charAt( c ));
+                }
+                out.writeInt( bytes );
+            }
+            for ( ; c < text.length(); c++ ) {
+                bytes += utf8Length( text.charAt( c ));
+            }
+            numBytes[docID] = bytes;
+            ptr += (long) n * Integer.BYTES;
+        }
+
+        /**
+         *  The number of bytes a char takes in UTF-8 (a surrogate pair
+         *  takes four, two for each half).
+         */
+        static int utf8Length( char c ) {
+            if ( c < 0x80 ) {
+                return 1;
+            } else if ( c < 0x800 || Character.isSurrogate( c )) {
+                return 2;
+            } else {
+                return 3;
+            }
+        }
+
+        /**
+         *  Writes the directory and the header, and closes the file.
+         */
+        public synchronized void close() throws IOException {
+            for ( int docID = 0; docID < numDocs; docID++ ) {
+                out.writeLong( dataPtr[docID] );
+                out.writeInt( numTokens[docID] );
+                out.writeInt( numBytes[docID] );
+            }
+            out.close();
+            try ( RandomAccessFile file = new RandomAccessFile( fname, "rw" )) {
+                file.writeInt( MAGIC );
+                file.writeInt( numDocs );
+                file.writeLong( ptr );
+            }
+        }
+    }
+
+
+    /**
+     *  A reader that keeps a copy of all characters read through it, so
+     *  that the token offsets of one document can be turned into byte
+     *  offsets when it has been read.
+     */
+    static class RecordingReader extends FilterReader {
+
+        /** The characters read so far. */
+        final StringBuilder text = new StringBuilder();
+
+        RecordingReader( Reader in ) {
+            super( in );
+        }
+
+        public int read() throws IOException {
+            int c = super.read();
+            if ( c >= 0 ) {
+                text.append( (char) c );
+            }
+            return c;
+        }
+
+        public int read( char[] cbuf, int off, int len ) throws IOException {
+            int n = super.read( cbuf, off, len );
+            if ( n > 0 ) {
+                text.append( cbuf, off, n );
+            }
+            return n;
+        }
+    }
+}
@@ -7,7 +7,13 @@
 
 package ir;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 
 public class SpellChecker {
@@ -55,21 +61,93 @@ public class SpellChecker {
     private static final int MAX_EDIT_DISTANCE = 2;
 
 
+    /**
+     * Weight of the (log-scaled) document frequency of a candidate
+     * relative to its Jaccard coefficient when ranking corrections.
+     */
+    private static final double DF_WEIGHT = 0.5;
+
+
+    /** Number of misspelled terms whose corrections are cached. */
+    private static final int CACHE_SIZE = 1024;
+
+
+    /** LRU cache of the ranked corrections of misspelled terms. */
+    private final LinkedHashMap<String,List<KGramStat>> cache = new LinkedHashMap<String,List<KGramStat>>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String,List<KGramStat>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+
+    /** Size of the vocabulary when the cached corrections were computed. */
+    private int cacheVocabularySize = -1;
+
+
+    /**
+     * If true, only corrected phrases matching at least one document
+     * are suggested.
+     */
+    private boolean checkResults = true;
+
+
+    /** Number of k-grams each term shares with the term being checked, indexed by term id */
+    private int[] overlap = new int[0];
+
+    /** The term ids with a non-zero count in <code>overlap</code> */
+    private int[] touched = new int[0];
+
+    /** Reusable edit distance buffers */
+    private final EditDistance distance = new EditDistance();
+
+    /** How candidate corrections are generated */
+    private CandidateGenerator candidateGenerator = CandidateGenerator.KGRAM;
+
+    /** Symmetric delete index, built the first time it is needed */
+    private SymmetricDeleteIndex deleteIndex = null;
+
+    /** Size of the vocabulary when <code>deleteIndex</code> was built */
+    private int deleteIndexSize = -1;
+
+    /** BK-tree over the vocabulary, built the first time it is needed */
+    private BKTree bkTree = null;
+
+
     public SpellChecker(Index index, KGramIndex kgIndex) {
         this.index = index;
         this.kgIndex = kgIndex;
     }
 
+    /**
+     *  Chooses how candidate corrections are generated.
+     */
+    public synchronized void setCandidateGenerator(CandidateGenerator generator) {
+        candidateGenerator = generator;
+        cache.clear();
+    }
+
+    /**
+     *  Forgets all cached corrections. The cache is also emptied
+     *  automatically when the vocabulary grows.
+     */
+    public synchronized void invalidateCache() {
+        cache.clear();
+    }
+
+    /**
+     *  Chooses whether suggested phrases must match some document.
+     */
+    public synchronized void setCheckResults(boolean checkResults) {
+        this.checkResults = checkResults;
+    }
+
     /**
      *  Computes the Jaccard coefficient for two sets A and B, where the size of set A is 
      *  <code>szA</code>, the size of set B is <code>szB</code> and the intersection 
      *  of the two sets contains <code>intersection</code> elements.
      */
     private double jaccard(int szA, int szB, int intersection) {
-        //
-        // YOUR CODE HERE
-        //
-        return 0;
+        return (double) intersection / (szA + szB - intersection);
     }
 
     /**
@@ -80,34 +158,257 @@ public class SpellChecker {
      *      => substitute (cost 2)
      */
     private int editDistance(String s1, String s2) {
-        //
-        // YOUR CODE HERE
-        //
-
-        return -1;
+        return distance.distance(s1, s2, MAX_EDIT_DISTANCE);
     }
 
     /**
      *  Checks spelling of all terms in <code>query</code> and returns up to
      *  <code>limit</code> ranked suggestions for spelling correction.
      */
-    public String[] check(Query query, int limit) {
-        //
-        // YOUR CODE HERE
-        //
+    public synchronized String[] check(Query query, int limit) {
+        if (kgIndex == null) {
+            return null;
+        }
+        if (cacheVocabularySize != kgIndex.size()) {
+            cache.clear();
+            cacheVocabularySize = kgIndex.size();
+        }
+        List<List<KGramStat>> qCorrections = new ArrayList<List<KGramStat>>();
+        for (int i = 0; i < query.queryterm.size(); i++) {
+            String term = query.queryterm.get(i).term;
+            List<KGramStat> candidates = cache.get(term);
+            if (candidates != null) {
+                // cached
+            } else if (kgIndex.getIDByTerm(term) != null) {
+                // correctly spelled terms are kept as they are
+                candidates = new ArrayList<KGramStat>();
+                candidates.add(new KGramStat(term, 1));
+            } else {
+                if (candidateGenerator == CandidateGenerator.SYMMETRIC_DELETE) {
+                    candidates = correctBySymmetricDelete(term);
+                } else if (candidateGenerator == CandidateGenerator.BK_TREE) {
+                    candidates = correctByBKTree(term);
+                } else {
+                    candidates = correct(term);
+                }
+                rankByPopularity(candidates);
+                cache.put(term, candidates);
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            qCorrections.add(candidates);
+        }
+        List<KGramStat> merged = mergeCorrections(qCorrections, limit);
+        if (merged == null || merged.isEmpty()) {
+            return null;
+        }
+        String[] result = new String[merged.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = merged.get(i).getToken();
+        }
+        return result;
+    }
+
+    /**
+     *  Returns the candidate corrections of one term, best first.
+     *
+     *  The k-gram overlap with every term sharing a k-gram is counted in a
+     *  single pass over the postings of the term's k-grams. Terms passing
+     *  the Jaccard threshold are then checked with an edit distance that
+     *  gives up as soon as MAX_EDIT_DISTANCE is exceeded.
+     */
+    private List<KGramStat> correct(String term) {
+        if (overlap.length < kgIndex.size()) {
+            overlap = new int[kgIndex.size()];
+            touched = new int[kgIndex.size()];
+        }
+        int numTouched = 0;
+        List<String> kgrams = new ArrayList<String>(kgIndex.getKGrams(term));
+        for (String kgram : kgrams) {
+            int[] postings = kgIndex.getPostings(kgram);
+            if (postings == null) {
+                continue;
+            }
+            for (int id : postings) {
+                if (overlap[id]++ == 0) {
+                    touched[numTouched++] = id;
+                }
+            }
+        }
+
+        List<KGramStat> candidates = new ArrayList<KGramStat>();
+        int k = kgIndex.getK();
+        for (int i = 0; i < numTouched; i++) {
+            int id = touched[i];
+            int intersection = overlap[id];
+            overlap[id] = 0;
+            String candidate = kgIndex.getTermByID(id);
+            // number of k-grams of ^candidate$ (repeated k-grams counted once per occurrence)
+            int szB = Math.max(intersection, candidate.length() + 3 - k);
+            double j = jaccard(kgrams.size(), szB, intersection);
+            if (j >= JACCARD_THRESHOLD && editDistance(term, candidate) <= MAX_EDIT_DISTANCE) {
+                candidates.add(new KGramStat(candidate, j));
+            }
+        }
+        Collections.sort(candidates, Collections.reverseOrder());
+        return candidates;
+    }
 
-        return null;
+    /**
+     *  Returns the candidate corrections of one term, best first, using the
+     *  symmetric delete index. The candidates are all within the edit
+     *  distance, so they are ranked by Jaccard coefficient without
+     *  applying the threshold.
+     */
+    private List<KGramStat> correctBySymmetricDelete(String term) {
+        if (deleteIndex == null || deleteIndexSize != kgIndex.size()) {
+            deleteIndex = SymmetricDeleteIndex.build(kgIndex, MAX_EDIT_DISTANCE);
+            deleteIndexSize = kgIndex.size();
+        }
+        List<KGramStat> candidates = new ArrayList<KGramStat>();
+        for (int id : deleteIndex.lookup(term)) {
+            String candidate = kgIndex.getTermByID(id);
+            if (editDistance(term, candidate) <= MAX_EDIT_DISTANCE) {
+                candidates.add(new KGramStat(candidate, jaccard(term, candidate)));
+            }
+        }
+        Collections.sort(candidates, Collections.reverseOrder());
+        return candidates;
+    }
+
+    /**
+     *  Returns the candidate corrections of one term, best first, by
+     *  searching a BK-tree for all terms within the edit distance. The
+     *  candidates are ranked by Jaccard coefficient without applying the
+     *  threshold.
+     */
+    private List<KGramStat> correctByBKTree(String term) {
+        if (bkTree == null || bkTree.size() != kgIndex.size()) {
+            bkTree = BKTree.build(kgIndex);
+        }
+        List<KGramStat> candidates = new ArrayList<KGramStat>();
+        for (int id : bkTree.search(term, MAX_EDIT_DISTANCE)) {
+            String candidate = kgIndex.getTermByID(id);
+            candidates.add(new KGramStat(candidate, jaccard(term, candidate)));
+        }
+        Collections.sort(candidates, Collections.reverseOrder());
+        return candidates;
+    }
+
+    /**
+     *  Computes the Jaccard coefficient of the k-gram sets of two terms.
+     */
+    private double jaccard(String s1, String s2) {
+        Set<String> kgrams = kgIndex.getKGrams(s1);
+        Set<String> other = kgIndex.getKGrams(s2);
+        int intersection = 0;
+        for (String kgram : other) {
+            if (kgrams.contains(kgram)) {
+                intersection++;
+            }
+        }
+        return jaccard(kgrams.size(), other.size(), intersection);
     }
 
     /**
      *  Merging ranked candidate spelling corrections for all query terms available in
      *  <code>qCorrections</code> into one final merging of query phrases. Returns up
      *  to <code>limit</code> corrected phrases.
+     *
+     *  The phrases are built term by term with a beam search: after each term only
+     *  the best phrases are kept, in a bounded min-heap, instead of forming every
+     *  combination of candidates.
      */
     private List<KGramStat> mergeCorrections(List<List<KGramStat>> qCorrections, int limit) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+        int beamWidth = checkResults ? 2 * limit : limit;
+
+        List<KGramStat> beam = new ArrayList<KGramStat>();
+        beam.add(new KGramStat("", 0));
+        PriorityQueue<KGramStat> best = new PriorityQueue<KGramStat>(beamWidth + 1);
+        for (List<KGramStat> corrections : qCorrections) {
+            int numCandidates = Math.min(beamWidth, corrections.size());
+            for (KGramStat phrase : beam) {
+                for (int i = 0; i < numCandidates; i++) {
+                    KGramStat c = corrections.get(i);
+                    double score = phrase.score + c.score;
+                    // the heap holds the beamWidth best phrases so far, worst on top
+                    if (best.size() == beamWidth && score <= best.peek().score) {
+                        continue;
+                    }
+                    String token = phrase.token.isEmpty() ? c.token : phrase.token + " " + c.token;
+                    best.add(new KGramStat(token, score));
+                    if (best.size() > beamWidth) {
+                        best.poll();
+                    }
+                }
+            }
+            beam = new ArrayList<KGramStat>(best);
+            best.clear();
+        }
+        Collections.sort(beam, Collections.reverseOrder());
+
+        if (checkResults) {
+            List<KGramStat> withResults = new ArrayList<KGramStat>();
+            for (KGramStat phrase : beam) {
+                if (withResults.size() == limit) {
+                    break;
+                }
+                if (hasResults(phrase.token.split(" "))) {
+                    withResults.add(phrase);
+                }
+            }
+            beam = withResults;
+        }
+        return beam.size() > limit ? beam.subList(0, limit) : beam;
+    }
+
+    /**
+     *  Adds a bonus for the (log-scaled) document frequency to the score of
+     *  every candidate, and sorts the candidates best first. Only the
+     *  document frequency is looked up, not the postings lists.
+     */
+    private void rankByPopularity(List<KGramStat> candidates) {
+        double logN = Math.log(1 + Math.max(1, index.getNumberOfDocs()));
+        for (KGramStat c : candidates) {
+            c.score += DF_WEIGHT * Math.log(1 + index.getDocumentFrequency(c.token)) / logN;
+        }
+        Collections.sort(candidates, Collections.reverseOrder());
+    }
+
+    /**
+     *  Checks whether some document contains all the terms.
+     */
+    private boolean hasResults(String[] terms) {
+        PostingsList result = null;
+        for (String term : terms) {
+            PostingsList postings = index.getPostings(term);
+            if (postings == null || postings.size() == 0) {
+                return false;
+            }
+            if (result == null) {
+                result = postings;
+                continue;
+            }
+            PostingsList both = new PostingsList();
+            int i = 0, j = 0;
+            while (i < result.size() && j < postings.size()) {
+                int d1 = result.get(i).docID, d2 = postings.get(j).docID;
+                if (d1 == d2) {
+                    both.getList().add(result.get(i));
+                    i++;
+                    j++;
+                } else if (d1 < d2) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            if (both.size() == 0) {
+                return false;
+            }
+            result = both;
+        }
+        return true;
     }
 }
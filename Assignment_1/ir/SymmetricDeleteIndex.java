@@ -0,0 +1,340 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ *  A symmetric delete index (as in SymSpell) for generating spelling
+ *  correction candidates.
+ *
+ *  Every term of the vocabulary is stored under all strings that can be
+ *  obtained from it by deleting up to <code>maxDeletes</code> characters.
+ *  Two strings within edit distance <code>maxDeletes</code> (inserts and
+ *  deletes cost 1, substitutions 2) then always share a delete variant,
+ *  so the candidates for a term are found by looking up the term's own
+ *  delete variants. Candidates must still be verified with the edit
+ *  distance, since variants are only stored by a 64-bit hash.
+ *
+ *  As in SymSpell, only the first PREFIX_LENGTH characters of a term are
+ *  used, which bounds the number of variants of long terms (URLs, numbers
+ *  and the like) while still finding the candidates for ordinary words.
+ *
+ *  The hash table uses open addressing over primitive arrays: every slot
+ *  holds a variant hash and the head of a linked list of term ids kept in
+ *  two parallel int arrays.
+ */
+public class SymmetricDeleteIndex {
+
+    /** Number of leading characters of a term that delete variants are made from. */
+    static final int PREFIX_LENGTH = 7;
+
+    /** Hash of every slot (0 marks an empty slot). */
+    private long[] slotHash;
+
+    /** First entry of every slot's list, or -1. */
+    private int[] slotHead;
+
+    /** Term id and next entry of every list entry. */
+    private int[] entryTerm, entryNext;
+
+    /** Number of used slots and list entries. */
+    private int numSlots = 0, numEntries = 0;
+
+    /** Number of characters that may be deleted. */
+    final int maxDeletes;
+
+    /** Marks term ids already returned by the current lookup. */
+    private BitSet seen = new BitSet();
+
+
+    /* --------------------------------------------- */
+
+
+    public SymmetricDeleteIndex( int maxDeletes ) {
+        this.maxDeletes = maxDeletes;
+        slotHash = new long[1 << 16];
+        slotHead = new int[1 << 16];
+        Arrays.fill( slotHead, -1 );
+        entryTerm = new int[1 << 16];
+        entryNext = new int[1 << 16];
+    }
+
+
+    /**
+     *  Builds the index for all terms of a k-gram index.
+     */
+    public static SymmetricDeleteIndex build( KGramIndex kgIndex, int maxDeletes ) {
+        SymmetricDeleteIndex index = new SymmetricDeleteIndex( maxDeletes );
+        for ( int id = 0; id < kgIndex.size(); id++ ) {
+            index.insert( kgIndex.getTermByID( id ), id );
+        }
+        return index;
+    }
+
+
+    /**
+     *  Stores a term under all of its delete variants.
+     */
+    public void insert( String term, int termID ) {
+        for ( String variant : deletes( term )) {
+            add( hash( variant ), termID );
+        }
+    }
+
+
+    /**
+     *  Returns the ids of all terms sharing a delete variant with
+     *  <code>term</code>, each id once.
+     */
+    public synchronized int[] lookup( String term ) {
+        int[] result = new int[16];
+        int n = 0;
+        for ( String variant : deletes( term )) {
+            int slot = find( hash( variant ));
+            if ( slotHash[slot] == 0 ) {
+                continue;
+            }
+            for ( int e = slotHead[slot]; e >= 0; e = entryNext[e] ) {
+                int id = entryTerm[e];
+                if ( !seen.get( id )) {
+                    seen.set( id );
+                    if ( n == result.length ) {
+                        result = Arrays.copyOf( result, n * 2 );
+                    }
+                    result[n++] = id;
+                }
+            }
+        }
+        for ( int i = 0; i < n; i++ ) {
+            seen.clear( result[i] );
+        }
+        return Arrays.copyOf( result, n );
+    }
+
+
+    /** Number of (variant, term) pairs stored. */
+    public int numEntries() {
+        return numEntries;
+    }
+
+
+    /** Approximate number of bytes taken by the hash table. */
+    public long memoryUsage() {
+        return (long) slotHash.length * Long.BYTES + (long) slotHead.length * Integer.BYTES
+            + (long) entryTerm.length * Integer.BYTES + (long) entryNext.length * Integer.BYTES;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Returns the distinct strings obtained by deleting up to maxDeletes
+     *  characters from the prefix of <code>term</code>, including the
+     *  prefix itself.
+     */
+    HashSet<String> deletes( String term ) {
+        if ( term.length() > PREFIX_LENGTH ) {
+            term = term.substring( 0, PREFIX_LENGTH );
+        }
+        HashSet<String> result = new HashSet<String>();
+        result.add( term );
+        ArrayList<String> frontier = new ArrayList<String>();
+        frontier.add( term );
+        for ( int d = 0; d < maxDeletes; d++ ) {
+            ArrayList<String> next = new ArrayList<String>();
+            for ( String s : frontier ) {
+                for ( int i = 0; i < s.length(); i++ ) {
+                    String variant = s.substring( 0, i ) + s.substring( i + 1 );
+                    if ( result.add( variant )) {
+                        next.add( variant );
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return result;
+    }
+
+
+    /** 64-bit FNV-1a hash of a string, never 0. */
+    static long hash( String s ) {
+        long h = 0xcbf29ce484222325L;
+        for ( int i = 0; i < s.length(); i++ ) {
+            h ^= s.charAt( i );
+            h *= 0x100000001b3L;
+        }
+        return h == 0 ? 1 : h;
+    }
+
+
+    /** Finds the slot of a hash by linear probing (an empty slot if absent). */
+    private int find( long h ) {
+        int mask = slotHash.length - 1;
+        int slot = (int)( h ^ ( h >>> 32 )) & mask;
+        while ( slotHash[slot] != 0 && slotHash[slot] != h ) {
+            slot = ( slot + 1 ) & mask;
+        }
+        return slot;
+    }
+
+
+    private void add( long h, int termID ) {
+        int slot = find( h );
+        if ( slotHash[slot] == 0 ) {
+            if ( 2 * ( numSlots + 1 ) > slotHash.length ) {
+                rehash();
+                slot = find( h );
+            }
+            slotHash[slot] = h;
+            numSlots++;
+        } else if ( entryTerm[slotHead[slot]] == termID ) {
+            return;
+        }
+        if ( numEntries == entryTerm.length ) {
+            entryTerm = Arrays.copyOf( entryTerm, numEntries * 2 );
+            entryNext = Arrays.copyOf( entryNext, numEntries * 2 );
+        }
+        entryTerm[numEntries] = termID;
+        entryNext[numEntries] = slotHead[slot];
+        slotHead[slot] = numEntries++;
+    }
+
+
+    /** Doubles the number of slots. */
+    private void rehash() {
+        long[] oldHash = slotHash;
+        int[] oldHead = slotHead;
+        slotHash = new long[oldHash.length * 2];
+        slotHead = new int[oldHash.length * 2];
+        Arrays.fill( slotHead, -1 );
+        for ( int i = 0; i < oldHash.length; i++ ) {
+            if ( oldHash[i] != 0 ) {
+                int slot = find( oldHash[i] );
+                slotHash[slot] = oldHash[i];
+                slotHead[slot] = oldHead[i];
+            }
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Benchmarks the candidate generators of the SpellChecker
+     *  on the vocabulary of a corpus.
+     *
+     *  Usage: SymmetricDeleteIndex -f <file or directory> [-p <patterns_file>] [-q <queries_file>] [-n <number of queries>]
+     *
+     *  The queries file holds one misspelled term per line. Without it,
+     *  queries are made by randomly deleting, inserting or substituting a
+     *  character in terms of the vocabulary.
+     */
+    public static void main( String[] args ) throws IOException {
+        String corpus = null, patterns = null, queriesFile = null;
+        int numQueries = 1000;
+        for ( int i = 0; i + 1 < args.length; i += 2 ) {
+            if ( "-f".equals( args[i] )) {
+                corpus = args[i + 1];
+            } else if ( "-p".equals( args[i] )) {
+                patterns = args[i + 1];
+            } else if ( "-q".equals( args[i] )) {
+                queriesFile = args[i + 1];
+            } else if ( "-n".equals( args[i] )) {
+                numQueries = Integer.parseInt( args[i + 1] );
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                return;
+            }
+        }
+        if ( corpus == null ) {
+            System.err.println( "Usage: SymmetricDeleteIndex -f <file or directory> [-p <patterns_file>] [-q <queries_file>] [-n <number of queries>]" );
+            return;
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        Index index = new HashedIndex();
+        KGramIndex kgIndex = new KGramIndex( 2 );
+        new Indexer( index, kgIndex, patterns ).processFiles( new File( corpus ), true );
+        System.err.println( kgIndex.size() + " terms" );
+
+        long kgramBytes = 0;
+        for ( KGramIndex.TermIDList list : kgIndex.index.values() ) {
+            kgramBytes += (long) list.size * Integer.BYTES;
+        }
+
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        long start = System.nanoTime();
+        SymmetricDeleteIndex deleteIndex = build( kgIndex, 2 );
+        long buildTime = System.nanoTime() - start;
+        System.gc();
+        long after = rt.totalMemory() - rt.freeMemory();
+
+        ArrayList<String> queries = new ArrayList<String>();
+        if ( queriesFile != null ) {
+            try ( BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( queriesFile ), StandardCharsets.UTF_8 ))) {
+                String line;
+                while (( line = in.readLine() ) != null ) {
+                    if ( !line.trim().isEmpty() ) {
+                        queries.add( line.trim().toLowerCase() );
+                    }
+                }
+            }
+        } else {
+            Random random = new Random( 42 );
+            while ( queries.size() < numQueries && kgIndex.size() > 0 ) {
+                StringBuilder sb = new StringBuilder( kgIndex.getTermByID( random.nextInt( kgIndex.size() )));
+                int pos = random.nextInt( sb.length() );
+                char c = (char)( 'a' + random.nextInt( 26 ));
+                switch ( random.nextInt( 3 )) {
+                case 0: if ( sb.length() > 1 ) sb.deleteCharAt( pos ); break;
+                case 1: sb.insert( pos, c ); break;
+                default: sb.setCharAt( pos, c );
+                }
+                queries.add( sb.toString() );
+            }
+        }
+
+        System.out.println( String.format( "k-gram index:         %,d postings, ~%,d bytes of postings", kgramBytes / Integer.BYTES, kgramBytes ));
+        System.out.println( String.format( "symmetric delete:     %,d entries, %,d bytes in arrays, ~%,d bytes heap growth, built in %.1f ms",
+                                           deleteIndex.numEntries(), deleteIndex.memoryUsage(), after - before, buildTime / 1e6 ));
+        SpellChecker speller = new SpellChecker( index, kgIndex );
+        for ( CandidateGenerator generator : CandidateGenerator.values() ) {
+            speller.setCandidateGenerator( generator );
+            // warm up, and build the generator's index inside the speller
+            for ( int i = 0; i < Math.min( 100, queries.size() ); i++ ) {
+                speller.check( new Query( queries.get( i )), 10 );
+            }
+            long[] times = new long[queries.size()];
+            int answered = 0;
+            for ( int i = 0; i < queries.size(); i++ ) {
+                // time the generator, not the correction cache (warm-up and repeated queries would hit it)
+                speller.invalidateCache();
+                long t = System.nanoTime();
+                String[] result = speller.check( new Query( queries.get( i )), 10 );
+                times[i] = System.nanoTime() - t;
+                if ( result != null ) {
+                    answered++;
+                }
+            }
+            Arrays.sort( times );
+            long total = 0;
+            for ( long t : times ) {
+                total += t;
+            }
+            System.out.println( String.format( "%-21s %d queries, %d with suggestions, mean %.3f ms, p50 %.3f ms, p95 %.3f ms",
+                                               generator + ":", times.length, answered, total / 1e6 / Math.max( 1, times.length ),
+                                               times.length == 0 ? 0 : times[times.length / 2] / 1e6,
+                                               times.length == 0 ? 0 : times[(int)( times.length * 0.95 )] / 1e6 ));
+        }
+    }
+}
@@ -44,6 +44,12 @@ public class Tokenizer {
      */
     public boolean remove_punctuation = true; 
 
+    /**
+     *  This flag should be set to 'true' if the character offset of every
+     *  token should be recorded (see @code{lastTokenOffset}).
+     */
+    public boolean record_offsets = false;
+
     /** 
      *  The size of the buffer should be considerably larger than
      *  the anticipated length of the longest token.
@@ -68,6 +74,25 @@ public class Tokenizer {
     /** The next tokens to emit. */
     ArrayList<String> token_queue = new ArrayList<String>();
 
+    /**
+     *  The character offsets in the text of the tokens in @code{token_queue}
+     *  (if @code{record_offsets} is set), from @code{offset_read} up to
+     *  @code{offset_count}.
+     */
+    long[] offset_queue = new long[16];
+
+    /** The position in @code{offset_queue} of the offset of the next token. */
+    int offset_read = 0;
+
+    /** The number of offsets put in @code{offset_queue}. */
+    int offset_count = 0;
+
+    /** The character offset in the text of @code{buf[0]}. */
+    long buffer_offset = 0;
+
+    /** The character offset in the text of the token last returned by @code{nextToken}. */
+    long last_offset = -1;
+
     /** @code{true} if we've started reading tokens. */
     boolean started_reading = false;
 
@@ -199,14 +224,24 @@ public class Tokenizer {
      */
     public String nextToken() throws IOException { 
         if ( token_queue.size() == 0 ) {
-            if ( readTokens() )
-                return token_queue.remove( 0 );
-            else
+            if ( !readTokens() )
                 return null;
         }
-        else {
-            return token_queue.remove( 0 );
+        if ( record_offsets ) {
+            last_offset = offset_queue[offset_read++];
         }
+        return token_queue.remove( 0 );
+    }
+
+
+    /**
+     *  @return the character offset in the text of the token last returned
+     *  by @code{nextToken}, or -1 if @code{record_offsets} is not set. The
+     *  token is spelled with as many characters in the text as in the
+     *  token itself.
+     */
+    public long lastTokenOffset() {
+        return last_offset;
     }
 
 
@@ -246,11 +281,13 @@ public class Tokenizer {
                     // of the token we have read already into the 
                     // beginning of the buffer.
                     System.arraycopy( buf, token_start, buf, 0, BUFFER_LENGTH-token_start );
+                    buffer_offset += token_start;
                     refillBuffer( BUFFER_LENGTH-token_start );
                     ptr = BUFFER_LENGTH-token_start;
                     token_start = 0;
                 }
                 else {
+                    buffer_offset += BUFFER_LENGTH;
                     refillBuffer( 0 );
                     ptr = 0;
                 }
@@ -272,6 +309,7 @@ public class Tokenizer {
             return false;
         }
         String s = new String( buf, token_start, ptr-token_start );
+        long s_offset = buffer_offset + token_start;
         if ( patterns != null ) {
             // Now let's see if the string s matches one of the patterns 
             // for non-standard words
@@ -281,8 +319,9 @@ public class Tokenizer {
                     // The string contains a non-standard word. First check the prefix 
                     // before the matching substring, then add the non-standard word  
                     // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue( s.substring(0, m.start() ));
+                    addStandardTokensToQueue( s.substring(0, m.start() ), s_offset );
                     token_queue.add( m.group() );
+                    addOffset( s_offset + m.start() );
                     token_start += m.end();
                     addTokensToQueue();
                     return true;
@@ -290,15 +329,16 @@ public class Tokenizer {
             }
         }
         // This string contains only standard words
-        return addStandardTokensToQueue( s );
+        return addStandardTokensToQueue( s, s_offset );
     }
 
 
     /**
      *  Adds standard tokens (i.e. tokens not matching any regular
-     *  expression) to the queue.
+     *  expression) to the queue. The string starts at character
+     *  @code{s_offset} of the text.
      */
-    private boolean addStandardTokensToQueue( String s ) {
+    private boolean addStandardTokensToQueue( String s, long s_offset ) {
         // This string s does not match any specific pattern.
         // Then split it, considering all punctuation symbols
         // to be separators.
@@ -311,11 +351,13 @@ public class Tokenizer {
                 String t = smallbuf.toString();
                 if ( t.length()>0 ) {
                     token_queue.add( t );
+                    addOffset( s_offset + i - t.length() );
                     smallbuf = new StringBuffer();
                     tokens_found = true;
                 }
                 if ( !remove_punctuation ) {
                     token_queue.add( "" + s.charAt( i ));
+                    addOffset( s_offset + i );
                     tokens_found = true;
                 }
             }
@@ -328,12 +370,31 @@ public class Tokenizer {
         String t = smallbuf.toString();
         if ( t.length()>0 ) {
             token_queue.add( t );
+            addOffset( s_offset + s.length() - t.length() );
             tokens_found = true;
         }   
         return tokens_found;
     }
     
 
+    /**
+     *  Records the offset of a token added to the queue, if offsets are
+     *  recorded.
+     */
+    private void addOffset( long offset ) {
+        if ( !record_offsets ) {
+            return;
+        }
+        if ( offset_read == offset_count ) {
+            // all offsets have been read, start over
+            offset_read = offset_count = 0;
+        } else if ( offset_count == offset_queue.length ) {
+            offset_queue = Arrays.copyOf( offset_queue, offset_count * 2 );
+        }
+        offset_queue[offset_count++] = offset;
+    }
+
+
     /**
      *  Refills the buffer and adds end_of_file "\0" at the appropriate place.
      */
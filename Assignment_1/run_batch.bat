@@ -0,0 +1 @@
+java -cp classes -Xmx1g ir.BatchSearch -ni -q queries.txt -t 4 -o results.trec
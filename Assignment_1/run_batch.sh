@@ -0,0 +1,2 @@
+#!/bin/sh
+java -cp classes -Xmx1g ir.BatchSearch -ni -q queries.txt -t 4 -o results.trec
@@ -0,0 +1 @@
+java -cp classes -Xmx1g ir.SearchServer -port 8080
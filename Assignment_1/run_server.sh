@@ -0,0 +1,2 @@
+#!/bin/sh
+java -cp classes -Xmx1g ir.SearchServer -port 8080